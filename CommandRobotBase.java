@@ -2,10 +2,21 @@ package org.usfirst.frc4904.standard;
 
 
 import org.usfirst.frc4904.standard.custom.CommandSendableChooser;
+import org.usfirst.frc4904.standard.custom.SubsystemRegistry;
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+import org.usfirst.frc4904.standard.custom.events.InputEventBus;
 import org.usfirst.frc4904.standard.custom.TypedNamedSendableChooser;
+import org.usfirst.frc4904.standard.custom.motorcontrollers.CANTalonFX;
+import org.usfirst.frc4904.standard.custom.profiling.LoopOverrunMonitor;
+import org.usfirst.frc4904.standard.custom.profiling.LoopProfiler;
+import org.usfirst.frc4904.standard.custom.profiling.MemoryTelemetry;
+import org.usfirst.frc4904.standard.custom.profiling.WarmUp;
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
 import org.usfirst.frc4904.standard.humaninput.Driver;
+import org.usfirst.frc4904.standard.humaninput.HumanInputSnapshot;
 import org.usfirst.frc4904.standard.humaninput.Operator;
 import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
@@ -22,6 +33,25 @@ public abstract class CommandRobotBase extends TimedRobot {
 	protected CommandSendableChooser autoChooser;
 	protected TypedNamedSendableChooser<Driver> driverChooser;
 	protected TypedNamedSendableChooser<Operator> operatorChooser;
+	protected final SubsystemRegistry subsystems = new SubsystemRegistry();
+
+	// loop phase profiling, see LoopProfiler; the Runnables are fields so the periodic functions do not allocate
+	private static final LoopProfiler.Entry PROFILE_LOOP = LoopProfiler.entry("CommandRobotBase.loop");
+	private static final LoopProfiler.Entry PROFILE_INPUT = LoopProfiler.entry("HumanInputSnapshot.capture()");
+	private static final LoopProfiler.Entry PROFILE_SIGNALS = LoopProfiler.entry("CANTalonFX.refreshSignals()");
+	private static final LoopProfiler.Entry PROFILE_EVENTS = LoopProfiler.entry("TimerWheel.advance(), InputEventBus.dispatch()");
+	private static final LoopProfiler.Entry PROFILE_SCHEDULER = LoopProfiler.entry("CommandScheduler.run()");
+	private static final LoopProfiler.Entry PROFILE_TELEOP = LoopProfiler.entry("teleopExecute()");
+	private static final LoopProfiler.Entry PROFILE_AUTONOMOUS = LoopProfiler.entry("autonomousExecute()");
+	private static final LoopProfiler.Entry PROFILE_DISABLED = LoopProfiler.entry("disabledExecute()");
+	private static final LoopProfiler.Entry PROFILE_TEST = LoopProfiler.entry("testExecute()");
+	private static final LoopProfiler.Entry PROFILE_ALWAYS = LoopProfiler.entry("alwaysExecute()");
+	private static final LoopProfiler.Entry PROFILE_PREPARE = LoopProfiler.entry("autoChooser.prepareSelected(), WarmUp.runDisabledTick()");
+	private final Runnable teleopExecute = this::teleopExecute;
+	private final Runnable autonomousExecute = this::autonomousExecute;
+	private final Runnable disabledExecute = this::disabledExecute;
+	private final Runnable testExecute = this::testExecute;
+	private final Runnable prepareWhileDisabled = this::prepareWhileDisabled;
 
 	/**
 	 * This displays our choosers. The default choosers are for autonomous type,
@@ -47,6 +77,55 @@ public abstract class CommandRobotBase extends TimedRobot {
 		}
 	}
 
+	/**
+	 * Runs one tick: marks it for InputReplay, reads the controllers into the
+	 * HumanInputSnapshot, refreshes motor signals, fires expired TimerWheel
+	 * timeouts, dispatches input edge events, runs the CommandScheduler, then
+	 * the mode's *Execute, alwaysExecute and prepare (if any), timing each
+	 * phase and its allocations and watching for overruns and GC pauses.
+	 */
+	private void runPeriodic(byte mode, Runnable modeExecute, LoopProfiler.Entry modeProfile, Runnable prepare) {
+		LoopOverrunMonitor.tickStarted();
+		double now = Timer.getFPGATimestamp();
+		InputReplay.beginTick(mode, now);
+		long start = System.nanoTime();
+		long startBytes = MemoryTelemetry.allocatedBytes();
+		HumanInputSnapshot.capture();
+		long inputDone = System.nanoTime();
+		long inputBytes = MemoryTelemetry.allocatedBytes();
+		CANTalonFX.refreshSignals();
+		long signalsDone = System.nanoTime();
+		long signalsBytes = MemoryTelemetry.allocatedBytes();
+		TimerWheel.advance(now);
+		InputEventBus.dispatch();
+		long eventsDone = System.nanoTime();
+		long eventsBytes = MemoryTelemetry.allocatedBytes();
+		LoopProfiler.commandsStarting(eventsDone);
+		CommandScheduler.getInstance().run();
+		long schedulerDone = System.nanoTime();
+		long schedulerBytes = MemoryTelemetry.allocatedBytes();
+		modeExecute.run();
+		long modeDone = System.nanoTime();
+		long modeBytes = MemoryTelemetry.allocatedBytes();
+		alwaysExecute();
+		long alwaysDone = System.nanoTime();
+		long alwaysBytes = MemoryTelemetry.allocatedBytes();
+		if (prepare != null) prepare.run();
+		long end = System.nanoTime();
+		long endBytes = MemoryTelemetry.allocatedBytes();
+		PROFILE_INPUT.record(inputDone - start, inputBytes - startBytes);
+		PROFILE_SIGNALS.record(signalsDone - inputDone, signalsBytes - inputBytes);
+		PROFILE_EVENTS.record(eventsDone - signalsDone, eventsBytes - signalsBytes);
+		PROFILE_SCHEDULER.record(schedulerDone - eventsDone, schedulerBytes - eventsBytes);
+		modeProfile.record(modeDone - schedulerDone, modeBytes - schedulerBytes);
+		PROFILE_ALWAYS.record(alwaysDone - modeDone, alwaysBytes - modeBytes);
+		if (prepare != null) PROFILE_PREPARE.record(end - alwaysDone, endBytes - alwaysBytes);
+		PROFILE_LOOP.record(end - start, endBytes - startBytes);
+		MemoryTelemetry.tickEnded(end - start);
+		LoopProfiler.publishIfDue(end / 1e9);
+		LoopOverrunMonitor.tickEnded();
+	}
+
 	// HACK FIXME, incredibly cursed and potentially bad
 	public static Driver drivingConfig = new Driver("uhohhh") {
 		@Override
@@ -71,19 +150,32 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void robotInit() {
+		// Mark robotInit in the InputReplay log, if recording
+		InputReplay.beginInit(InputReplay.ROBOT, Timer.getFPGATimestamp());
 		// Initialize choosers
 		autoChooser = new CommandSendableChooser();
 		driverChooser = new TypedNamedSendableChooser<Driver>();
 		operatorChooser = new TypedNamedSendableChooser<Operator>();
+		// Capture the main thread's stack when a tick overruns; see LoopOverrunMonitor
+		LoopOverrunMonitor.start(Thread.currentThread(), getPeriod());
 		// Run user-provided initialize function
 		initialize();
+		// Build whatever initialize() registered and did not build itself
+		subsystems.buildAll();
+		// Time each command's step of CommandScheduler.run; after initialize() so its button bindings are not counted, see LoopProfiler
+		LoopProfiler.profileCommands();
+		// Run registered control paths so they are compiled before autonomous; see WarmUp
+		WarmUp.runInit();
 		// Display choosers on SmartDashboard
 		displayChoosers();
 	}
 
 	/**
 	 * Function for year-specific code to be run on robot code launch.
-	 * setHealthChecks should be called here if needed.
+	 * setHealthChecks should be called here if needed, and WarmUp configured.
+	 * Hardware and subsystems can be registered with subsystems to be built in
+	 * parallel (see SubsystemRegistry); they are built after this returns, or
+	 * when this calls subsystems.buildAll().
 	 */
 	public abstract void initialize();
 
@@ -94,6 +186,8 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void teleopInit() {
+		InputReplay.beginInit(InputReplay.TELEOP, Timer.getFPGATimestamp());
+		HumanInputSnapshot.capture();
 		cleanup();
 		if (driverChooser.getSelected() != null) {
 			// LogKitten.d("Loading driver " + driverChooser.getSelected().getName());
@@ -122,9 +216,7 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void teleopPeriodic() {
-		CommandScheduler.getInstance().run();
-		teleopExecute();
-		alwaysExecute();
+		runPeriodic(InputReplay.TELEOP, teleopExecute, PROFILE_TELEOP, null);
 	}
 
 	/**
@@ -139,6 +231,8 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void autonomousInit() {
+		InputReplay.beginInit(InputReplay.AUTONOMOUS, Timer.getFPGATimestamp());
+		HumanInputSnapshot.capture();
 		cleanup();
 		autonomousCommand = autoChooser.getSelected();
 		if (autonomousCommand != null) {
@@ -158,9 +252,7 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void autonomousPeriodic() {
-		CommandScheduler.getInstance().run();
-		autonomousExecute();
-		alwaysExecute();
+		runPeriodic(InputReplay.AUTONOMOUS, autonomousExecute, PROFILE_AUTONOMOUS, null);
 	}
 
 	/**
@@ -174,7 +266,10 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void disabledInit() {
+		InputReplay.beginInit(InputReplay.DISABLED, Timer.getFPGATimestamp());
+		HumanInputSnapshot.capture();
 		cleanup();
+		LoopOverrunMonitor.requestDump();
 		disabledInitialize();
 	}
 
@@ -189,9 +284,16 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void disabledPeriodic() {
-		CommandScheduler.getInstance().run();
-		disabledExecute();
-		alwaysExecute();
+		runPeriodic(InputReplay.DISABLED, disabledExecute, PROFILE_DISABLED, prepareWhileDisabled);
+	}
+
+	/**
+	 * Builds the selected autonomous command and keeps control paths warm, in
+	 * the disabled tick so overruns and allocations are attributed to it.
+	 */
+	private void prepareWhileDisabled() {
+		autoChooser.prepareSelected();
+		WarmUp.runDisabledTick();
 	}
 
 	/**
@@ -205,6 +307,8 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public final void testInit() {
+		InputReplay.beginInit(InputReplay.TEST, Timer.getFPGATimestamp());
+		HumanInputSnapshot.capture();
 		cleanup();
 		testInitialize();
 	}
@@ -220,9 +324,7 @@ public abstract class CommandRobotBase extends TimedRobot {
 	 */
 	@Override
 	public void testPeriodic() {
-		CommandScheduler.getInstance().run();
-		testExecute();
-		alwaysExecute();
+		runPeriodic(InputReplay.TEST, testExecute, PROFILE_TEST, null);
 	}
 
 	/**
@@ -0,0 +1,64 @@
+package org.usfirst.frc4904.standard.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+
+/**
+ * Pool of ReusableCommands made by one factory. acquire() returns an instance
+ * that is not in use, only creating one when all are, so once the pool has
+ * grown to the most commands in use at once, acquiring allocates nothing.
+ *
+ * An acquired command is borrowed: schedule it right away and do not keep it
+ * (eg. bound to a button, or in a group), since it is handed out again once it
+ * ends. That makes pools a fit for CreateAndDisown and for commands created
+ * in periodic code; commands bound once at startup should be made normally.
+ *
+ * Main thread only.
+ */
+public class CommandPool<T extends ReusableCommand> {
+
+    protected final Supplier<T> factory;
+    private final List<T> commands = new ArrayList<>();
+
+    /**
+     * @param factory Creates a new instance when none is free
+     */
+    public CommandPool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return a command that is not in use, now marked in use. Set its
+     *         parameters and schedule it.
+     */
+    public T acquire() {
+        double now = TimerWheel.now();
+        for (int i = 0; i < commands.size(); i++) {
+            T command = commands.get(i);
+            if (!command.inUse) return take(command, now);
+        }
+        // acquired on an earlier tick but never scheduled (eg. schedule() was refused): reclaim
+        for (int i = 0; i < commands.size(); i++) {
+            T command = commands.get(i);
+            if (command.acquiredAt < now && !command.isScheduled()) return take(command, now);
+        }
+        T command = factory.get();
+        commands.add(command);
+        return take(command, now);
+    }
+
+    private T take(T command, double now) {
+        command.inUse = true;
+        command.acquiredAt = now;
+        return command;
+    }
+
+    /**
+     * @return the number of instances created so far
+     */
+    public int size() {
+        return commands.size();
+    }
+}
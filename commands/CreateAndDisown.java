@@ -1,6 +1,7 @@
 package org.usfirst.frc4904.standard.commands;
 
 import edu.wpi.first.wpilibj2.command.Command;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 // to be replaced by Commandd
@@ -8,6 +9,7 @@ public class CreateAndDisown extends Command {
 
     private final Supplier<Command> commandDealer;
     private Command currentActiveCommand = null;
+    private Command namedFor = null;    // command the name was last built for; pooled commands come back, so skip rebuilding the string
 
     public CreateAndDisown(String name, Supplier<Command> commandDealer) {
         this.commandDealer = commandDealer;
@@ -27,11 +29,31 @@ public class CreateAndDisown extends Command {
         this("Unnamed CreateAndDisown", commandDealer);
     }
 
+    /**
+     * Command that runs a command from pool each time it is scheduled, set up
+     * by configure (eg. setting its parameters). Once the pool has enough
+     * instances, scheduling this allocates no commands.
+     *
+     * @param name      Name of this command
+     * @param pool      The pool to acquire commands from
+     * @param configure Sets up each acquired command before it is scheduled
+     */
+    public <T extends ReusableCommand> CreateAndDisown(String name, CommandPool<T> pool, Consumer<? super T> configure) {
+        this(name, () -> {
+            T command = pool.acquire();
+            configure.accept(command);
+            return command;
+        });
+    }
+
     @Override
     public void initialize() {
         currentActiveCommand = commandDealer.get();
         currentActiveCommand.schedule();
-        setName("C&D: " + currentActiveCommand.getName());
+        if (currentActiveCommand != namedFor) {
+            namedFor = currentActiveCommand;
+            setName("C&D: " + currentActiveCommand.getName());
+        }
     }
 
     @Override
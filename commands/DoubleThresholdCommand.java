@@ -0,0 +1,58 @@
+package org.usfirst.frc4904.standard.commands;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import java.util.function.DoubleSupplier;
+
+/**
+ * ThresholdCommand for doubles (eg. joystick axes and triggers). Starts the
+ * command when the supplier passes the threshold and cancels it when it stops
+ * being passed, reading the supplier once per tick without boxing.
+ */
+public class DoubleThresholdCommand extends Command {
+
+    protected final Command command;
+    protected final DoubleSupplier supplier;
+    protected final double threshold;
+    protected final boolean invert;
+
+    public DoubleThresholdCommand(
+        String name,
+        Command command,
+        DoubleSupplier supplier,
+        double threshold,
+        boolean invert
+    ) {
+        setName(name);
+        this.command = command;
+        this.supplier = supplier;
+        this.threshold = threshold;
+        this.invert = invert;
+    }
+
+    public DoubleThresholdCommand(Command command, DoubleSupplier supplier, double threshold, boolean invert) {
+        this("DoubleThresholdCommand[" + command.getName() + "]", command, supplier, threshold, invert);
+    }
+
+    public DoubleThresholdCommand(Command command, DoubleSupplier axis, double threshold) {
+        this(command, axis, threshold, false);
+    }
+
+    protected boolean pastThreshold() {
+        return (supplier.getAsDouble() >= threshold) != invert;
+    }
+
+    @Override
+    public void execute() {
+        boolean past = pastThreshold();
+        if (past && !command.isScheduled()) {
+            command.schedule();
+        } else if (!past && command.isScheduled()) {
+            command.cancel();
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return false;
+    }
+}
@@ -4,6 +4,10 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.ParallelCommandGroup;
 import org.usfirst.frc4904.standard.custom.Overridable;
 
+/**
+ * A parallel command group whose commands can run only while an
+ * Overridable is, or is not, overridden.
+ */
 public abstract class OverridableParallelCommandGroup extends ParallelCommandGroup {
 
     protected final Overridable overridable;
@@ -23,7 +27,7 @@ public abstract class OverridableParallelCommandGroup extends ParallelCommandGro
     }
 
     public final synchronized void addParallelUnlessOverridden(Command command, double timeout) {
-        addCommands(new RunIf(command.withTimeout(timeout), overridable::isNotOverridden));
+        addCommands(new RunIf(WaitSeconds.timeout(command, timeout), overridable::isNotOverridden));
     }
 
     public final synchronized void addParallelIfOverridden(Command command) {
@@ -31,6 +35,6 @@ public abstract class OverridableParallelCommandGroup extends ParallelCommandGro
     }
 
     public final synchronized void addParallelIfOverridden(Command command, double timeout) {
-        addCommands(new RunIf(command.withTimeout(timeout), overridable::isOverridden));
+        addCommands(new RunIf(WaitSeconds.timeout(command, timeout), overridable::isOverridden));
     }
 }
@@ -4,6 +4,10 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SequentialCommandGroup;
 import org.usfirst.frc4904.standard.custom.Overridable;
 
+/**
+ * A sequential command group whose commands can run only while an
+ * Overridable is, or is not, overridden.
+ */
 public abstract class OverridableSequentialCommandGroup extends SequentialCommandGroup {
 
     protected final Overridable overridable;
@@ -23,7 +27,7 @@ public abstract class OverridableSequentialCommandGroup extends SequentialComman
     }
 
     public final synchronized void addSequentialUnlessOverridden(Command command, double timeout) {
-        addCommands(new RunIf(command.withTimeout(timeout), overridable::isNotOverridden));
+        addCommands(new RunIf(WaitSeconds.timeout(command, timeout), overridable::isNotOverridden));
     }
 
     public final synchronized void addSequentialIfOverridden(Command command) {
@@ -31,6 +35,6 @@ public abstract class OverridableSequentialCommandGroup extends SequentialComman
     }
 
     public final synchronized void addSequentialIfOverridden(Command command, double timeout) {
-        addCommands(new RunIf(command.withTimeout(timeout), overridable::isOverridden));
+        addCommands(new RunIf(WaitSeconds.timeout(command, timeout), overridable::isOverridden));
     }
 }
@@ -0,0 +1,36 @@
+package org.usfirst.frc4904.standard.commands;
+
+import edu.wpi.first.wpilibj2.command.Command;
+
+/**
+ * A command that can be run again and again with different parameters, so
+ * CommandPool can hand out the same instances instead of allocating a new
+ * command (plus its lambdas and requirement set) on every button press.
+ * Subclasses have parameter setters returning this, and read the parameters
+ * in initialize()/execute().
+ *
+ * An instance is in use from CommandPool.acquire() until it ends. Subclasses
+ * that override end() must call super.end().
+ */
+public abstract class ReusableCommand extends Command {
+
+    boolean inUse = false;
+    double acquiredAt;
+
+    public ReusableCommand(String name) {
+        super();
+        setName(name);
+    }
+
+    /**
+     * @return whether the command was acquired from its pool and has not ended
+     */
+    public boolean isInUse() {
+        return inUse;
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        inUse = false;
+    }
+}
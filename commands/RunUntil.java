@@ -1,18 +1,18 @@
 package org.usfirst.frc4904.standard.commands;
 
 import edu.wpi.first.wpilibj2.command.Command;
-import java.util.function.Supplier;
+import java.util.function.BooleanSupplier;
 
 public class RunUntil extends Command {
 
     protected final Command command;
-    protected final Supplier<Boolean> stopCondition;
+    protected final BooleanSupplier stopCondition;
     protected final boolean cancelOnEnd;
 
     public RunUntil(
         String name,
         Command command,
-        Supplier<Boolean> stopCondition,
+        BooleanSupplier stopCondition,
         boolean cancelOnEnd
     ) {
         super();
@@ -22,7 +22,7 @@ public class RunUntil extends Command {
         this.cancelOnEnd = cancelOnEnd;
     }
 
-    public RunUntil(Command command, Supplier<Boolean> stopCondition) {
+    public RunUntil(Command command, BooleanSupplier stopCondition) {
         this("RunUntil", command, stopCondition, true);
     }
 
@@ -33,7 +33,7 @@ public class RunUntil extends Command {
 
     @Override
     public boolean isFinished() {
-        return stopCondition.get();
+        return stopCondition.getAsBoolean();
     }
 
     @Override
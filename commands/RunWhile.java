@@ -1,21 +1,21 @@
 package org.usfirst.frc4904.standard.commands;
 
 import edu.wpi.first.wpilibj2.command.Command;
-import java.util.function.Supplier;
+import java.util.function.BooleanSupplier;
 
 public class RunWhile extends Command {
 
     protected final Command command;
-    protected final Supplier<Boolean> stopCondition;
+    protected final BooleanSupplier stopCondition;
 
-    public RunWhile(String name, Command command, Supplier<Boolean> stopCondition) {
+    public RunWhile(String name, Command command, BooleanSupplier stopCondition) {
         super();
         setName(name);
         this.command = command;
         this.stopCondition = stopCondition;
     }
 
-    public RunWhile(Command command, Supplier<Boolean> stopCondition) {
+    public RunWhile(Command command, BooleanSupplier stopCondition) {
         this("RunWhile", command, stopCondition);
     }
 
@@ -26,7 +26,7 @@ public class RunWhile extends Command {
 
     @Override
     public boolean isFinished() {
-        return !stopCondition.get();
+        return !stopCondition.getAsBoolean();
     }
 
     @Override
@@ -2,20 +2,30 @@ package org.usfirst.frc4904.standard.commands;
 
 // import org.usfirst.frc4904.standard.LogKitten;
 import edu.wpi.first.wpilibj2.command.Command;
+import org.usfirst.frc4904.standard.custom.TimerWheel;
 
 /**
  * A command that will only run if the isSafe() method returns safe. To use,
  * implement an isSafe() method, and use executeIfSafe() in place of the
  * execute() method
+ *
+ * With a timeout, the command ends once it has run that long, counted from
+ * its first execute(). It ends through isFinished(), so this also works
+ * inside command groups, and subclasses implement isDone() instead.
+ * Subclasses that override end() must call super.
  */
 public abstract class SafetyCommand extends Command {
 
     protected String reasonUnsafe;
+    protected final double timeoutSeconds;    // NaN for no timeout
+    private final TimerWheel.Timeout timeout = new TimerWheel.Timeout(() -> {});    // polled by isFinished()
+    private boolean timing = false;    // whether the timeout was armed in this run
+    private boolean unsafe = false;    // whether isSafe() failed in this run
 
     public SafetyCommand(String name, double timeout) {
         super();
         setName(name);
-        withTimeout(timeout);
+        this.timeoutSeconds = timeout;
     }
 
     public SafetyCommand(double timeout) {
@@ -23,8 +33,7 @@ public abstract class SafetyCommand extends Command {
     }
 
     public SafetyCommand(String name) {
-        super();
-        setName(name);
+        this(name, Double.NaN);
     }
 
     public SafetyCommand() {
@@ -33,10 +42,16 @@ public abstract class SafetyCommand extends Command {
 
     @Override
     public final void execute() {
+        // armed here rather than in initialize(), which subclasses may override
+        if (!timing && !Double.isNaN(timeoutSeconds)) {
+            timeout.arm(timeoutSeconds);
+            timing = true;
+        }
         if (isSafe()) {
             executeIfSafe();
             return;
         }
+        unsafe = true;    // ends through isFinished(), since cancel() does nothing inside a group
         cancel();
         if (reasonUnsafe == null) {
             reasonUnsafe = "the required safety conditions haven't been met";
@@ -47,6 +62,28 @@ public abstract class SafetyCommand extends Command {
         // LogKitten.e("SafetyCommand " + getName() + " cannot run because " + reasonUnsafe + ". Cancelling...");
     }
 
+    @Override
+    public final boolean isFinished() {
+        if (unsafe || (timing && timeout.hasExpired())) return true;
+        return isDone();
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        timeout.cancel();
+        timing = false;
+        unsafe = false;
+    }
+
+    /**
+     * Replaces isFinished(), which also checks the timeout.
+     *
+     * @return whether the command is done, before any timeout
+     */
+    protected boolean isDone() {
+        return false;
+    }
+
     protected void setUnsafeReason(String reasonUnsafe) {
         this.reasonUnsafe = reasonUnsafe;
     }
@@ -7,6 +7,9 @@ import java.util.function.Supplier;
  * Threshold command takes in a command, a supplier, and a threshold. When the
  * threshold is passed by the supplier, it starts the command. When the
  * threshold stops being passed, it cancels the command.
+ *
+ * For double thresholds (eg. joystick axes), DoubleThresholdCommand does the
+ * same without boxing the value every tick.
  */
 public class ThresholdCommand<T extends Comparable<T>> extends Command {
 
@@ -43,9 +46,10 @@ public class ThresholdCommand<T extends Comparable<T>> extends Command {
 
     @Override
     public void execute() {
-        if (pastThreshold() && !command.isScheduled()) {
+        boolean past = pastThreshold();
+        if (past && !command.isScheduled()) {
             command.schedule();
-        } else if (!pastThreshold() && command.isScheduled()) {
+        } else if (!past && command.isScheduled()) {
             command.cancel();
         }
     }
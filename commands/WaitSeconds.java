@@ -0,0 +1,62 @@
+package org.usfirst.frc4904.standard.commands;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.ParallelRaceGroup;
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+
+/**
+ * Waits for a number of seconds, like WaitCommand, but with a TimerWheel
+ * deadline: isFinished() only reads a flag instead of the FPGA clock, and the
+ * deadline is found by the wheel at no per-command cost, as long as
+ * TimerWheel.advance() is called every tick, which CommandRobotBase does.
+ * Otherwise isFinished() compares the deadline with the FPGA clock, like
+ * WaitCommand.
+ */
+public class WaitSeconds extends Command {
+
+    protected final double seconds;
+    protected final TimerWheel.Timeout timeout;
+    protected boolean done;
+
+    public WaitSeconds(String name, double seconds) {
+        super();
+        setName(name);
+        this.seconds = seconds;
+        this.timeout = new TimerWheel.Timeout(() -> done = true);
+    }
+
+    public WaitSeconds(double seconds) {
+        this("WaitSeconds", seconds);
+    }
+
+    /**
+     * Like Command.withTimeout(), with a WaitSeconds instead of a WaitCommand.
+     *
+     * @return a command that ends when command does or after seconds,
+     *         whichever is first
+     */
+    public static ParallelRaceGroup timeout(Command command, double seconds) {
+        return command.raceWith(new WaitSeconds(seconds));
+    }
+
+    @Override
+    public void initialize() {
+        done = false;
+        timeout.arm(seconds);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return done || timeout.hasExpired();
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        timeout.cancel();
+    }
+
+    @Override
+    public boolean runsWhenDisabled() {
+        return true;
+    }
+}
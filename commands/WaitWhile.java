@@ -1,18 +1,18 @@
 package org.usfirst.frc4904.standard.commands;
 
 import edu.wpi.first.wpilibj2.command.Command;
-import java.util.function.Supplier;
+import java.util.function.BooleanSupplier;
 
 public class WaitWhile extends Command {
 
-    protected final Supplier<Boolean> stopCondition;
+    protected final BooleanSupplier stopCondition;
 
-    public WaitWhile(Supplier<Boolean> stopCondition) {
+    public WaitWhile(BooleanSupplier stopCondition) {
         this.stopCondition = stopCondition;
     }
 
     @Override
     public boolean isFinished() {
-        return !stopCondition.get();
+        return !stopCondition.getAsBoolean();
     }
 }
@@ -1,5 +1,15 @@
 package org.usfirst.frc4904.standard.custom;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj2.command.Command;
 
@@ -7,9 +17,84 @@ import edu.wpi.first.wpilibj2.command.Command;
  * A SendableChooser for commands. This allows us to put a command choice on the
  * smart dashboard.
  *
+ * Options can also be lazy, for autonomous routines that are expensive to
+ * build (trajectory generation, path loading, profile planning). A lazy option
+ * is built only once it is selected: prepareSelected(), called every
+ * disabledPeriodic by CommandRobotBase, runs its prepare step on a background
+ * thread, then assembles the command on the main thread once that is done, so
+ * by autonomousInit getSelected() returns a ready command. The command is
+ * cached, so switching back and forth does not rebuild it.
+ *
+ * The prepare step must not construct commands: composing commands registers
+ * them with the CommandScheduler, which is not thread safe.
  */
 // public class CommandSendableChooser extends SendableChooser<Command> {	// OPTIM: A LOT of stuff in standard takes in Command when it should probably take in Command (unintuitively, Command is actually less basic than Command)
 public class CommandSendableChooser extends SendableChooser<Command> {
+    private ExecutorService executor;
+    private final List<LazyOption<?>> lazyOptions = new ArrayList<>();
+
+    /**
+     * Placeholder stored in the chooser for a lazy option. Never scheduled;
+     * getSelected() returns the command it builds instead.
+     */
+    private final class LazyOption<T> extends Command {
+        private final Callable<T> prepare;
+        private final Function<T, Command> assemble;
+        private Future<T> prepared;
+        private Command command;
+        private boolean failed = false;
+
+        LazyOption(String name, Callable<T> prepare, Function<T, Command> assemble) {
+            this.prepare = prepare;
+            this.assemble = assemble;
+            setName(name);
+        }
+
+        /**
+         * Starts preparing, or assembles once prepared. Main thread only.
+         */
+        void advance() {
+            if (command != null || failed) return;
+            if (prepared == null) {
+                prepared = getExecutor().submit(prepare);
+            } else if (prepared.isDone()) {
+                assemble();
+            }
+        }
+
+        /**
+         * @return the command, building it now if it is not ready, or null if
+         *         it could not be built
+         */
+        Command get() {
+            if (command != null || failed) return command;
+            System.err.println("Autonomous routine " + getName() + " was not prepared in advance; building it now");
+            if (prepared == null) prepared = getExecutor().submit(prepare);
+            assemble();
+            return command;
+        }
+
+        private void assemble() {
+            long start = System.nanoTime();
+            try {
+                command = assemble.apply(prepared.get());
+                System.out.printf("Autonomous routine %s ready, assembled in %.0fms%n", getName(), (System.nanoTime() - start) / 1e6);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | RuntimeException e) {
+                failed = true;
+                System.err.println("Could not build autonomous routine " + getName());
+                (e instanceof ExecutionException ? e.getCause() : e).printStackTrace();
+            }
+        }
+
+        void invalidate() {
+            if (prepared != null) prepared.cancel(false);
+            prepared = null;
+            command = null;
+            failed = false;
+        }
+    }
 
     /**
      * Adds the command object to the smart dashboard.
@@ -28,4 +113,81 @@ public class CommandSendableChooser extends SendableChooser<Command> {
     public void setDefaultOption(Command object) {
         super.setDefaultOption(object.getName() + " (default)", object);
     }
+
+    /**
+     * Adds an autonomous routine that is built only once selected.
+     *
+     * @param name     Name shown on the dashboard
+     * @param prepare  Expensive work that does not construct commands (eg.
+     *                 trajectory generation), run on a background thread
+     * @param assemble Builds the command from the prepared result, run on the
+     *                 main thread
+     */
+    public <T> void addLazyOption(String name, Callable<T> prepare, Function<T, Command> assemble) {
+        super.addOption(name, lazy(name, prepare, assemble));
+    }
+
+    /**
+     * Adds an autonomous routine that is built on the main thread during
+     * disabled once selected.
+     */
+    public void addLazyOption(String name, Supplier<Command> build) {
+        addLazyOption(name, () -> null, prepared -> build.get());
+    }
+
+    /**
+     * Like addLazyOption(), as the default option.
+     */
+    public <T> void setDefaultLazyOption(String name, Callable<T> prepare, Function<T, Command> assemble) {
+        super.setDefaultOption(name + " (default)", lazy(name, prepare, assemble));
+    }
+
+    public void setDefaultLazyOption(String name, Supplier<Command> build) {
+        setDefaultLazyOption(name, () -> null, prepared -> build.get());
+    }
+
+    private <T> LazyOption<T> lazy(String name, Callable<T> prepare, Function<T, Command> assemble) {
+        var option = new LazyOption<T>(name, prepare, assemble);
+        lazyOptions.add(option);
+        return option;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, "CommandSendableChooser");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Advances building the selected option, if it is lazy. Called by
+     * CommandRobotBase every disabledPeriodic.
+     */
+    public void prepareSelected() {
+        Command selected = super.getSelected();
+        if (selected instanceof LazyOption) ((LazyOption<?>) selected).advance();
+    }
+
+    /**
+     * Forgets every built lazy option, so they are rebuilt when selected (eg.
+     * after the alliance color a routine depends on changes).
+     */
+    public void invalidateLazyOptions() {
+        for (var option : lazyOptions) option.invalidate();
+    }
+
+    /**
+     * @return the selected command. A lazy option that is not ready yet is
+     *         built on the spot, which may take a while.
+     */
+    @Override
+    public Command getSelected() {
+        Command selected = super.getSelected();
+        if (selected instanceof LazyOption) return ((LazyOption<?>) selected).get();
+        return selected;
+    }
 }
@@ -1,6 +1,8 @@
 package org.usfirst.frc4904.standard.custom;
 
 // import org.usfirst.frc4904.standard.LogKitten;
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+
 import edu.wpi.first.hal.can.CANJNI;
 import edu.wpi.first.hal.can.CANMessageNotFoundException;
 import edu.wpi.first.hal.util.UncleanStatusException;
@@ -10,7 +12,7 @@ import java.util.Optional;
 
 /**
  * This class allows sending and receiving of messages over CAN to a specific
- * ID.
+ * ID. Messages are read through InputReplay.
  *
  */
 public class CustomCAN {
@@ -18,6 +20,7 @@ public class CustomCAN {
     // Because CANJNI is basically static, we do not extend it.
     protected final int messageID;
     protected final String name;
+    private final short channel;
 
     /**
      * Constructor for a CustomCAN device. The name is local and for your
@@ -31,6 +34,7 @@ public class CustomCAN {
         this.name = name;
         messageID = id; // Ensure that the messageID is zeroed (32 bit int should be default, but better
         // to be careful)
+        channel = InputReplay.channel("CAN 0x" + Integer.toHexString(id));
     }
 
     public String getName() {
@@ -76,17 +80,25 @@ public class CustomCAN {
         idBuffer.clear();
         idBuffer.put(0, Integer.reverseBytes(messageID));
         ByteBuffer timestamp = ByteBuffer.allocate(4);
+        byte[] data;
+        CANMessageNotFoundException notFound = null;
         try {
-            return CANJNI.FRCNetCommCANSessionMuxReceiveMessage(idBuffer, 0x1fffffff, timestamp);
+            data = CANJNI.FRCNetCommCANSessionMuxReceiveMessage(idBuffer, 0x1fffffff, timestamp);
         } catch (CANMessageNotFoundException e) {
+            data = null;
+            notFound = e;
+        }
+        data = InputReplay.bytes(channel, data);
+        if (data == null) {
             throw new CANMessageUnavailableException(
                 "Unable to read CAN device " +
                 getName() +
                 " with ID 0x" +
                 Integer.toHexString(messageID),
-                e
+                notFound
             );
         }
+        return data;
     }
 
     /**
@@ -0,0 +1,238 @@
+package org.usfirst.frc4904.standard.custom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Builds the robot's hardware and subsystems at startup with their
+ * dependencies declared, instead of one after another in initialize().
+ *
+ * - register(): hardware (motors, CAN sensors, NavX, ...) built on a small
+ *   thread pool as soon as its dependencies are built, since most of the time
+ *   is spent waiting on CAN and USB round trips.
+ * - registerSubsystem(): built on the main thread, in registration order, once
+ *   its dependencies are built. Anything extending SubsystemBase must be
+ *   registered this way, since its constructor registers it with the
+ *   CommandScheduler, which is not thread safe.
+ * - registerLazy(): built the first time get() is called, on the calling
+ *   thread (eg. test-mode-only mechanisms).
+ *
+ * Dependencies must be registered first, so there are no cycles. buildAll()
+ * builds everything that is not lazy and prints how long each one took;
+ * CommandRobotBase calls it after initialize(), and initialize() can call it
+ * itself if it needs the subsystems (eg. to fill the autonomous chooser).
+ */
+public class SubsystemRegistry {
+    public static final int DEFAULT_THREADS = 4;
+    public static final double DEFAULT_TIMEOUT_SECONDS = 30;
+
+    private enum Kind { PARALLEL, MAIN, LAZY }
+
+    /**
+     * Something registered. get() returns it once built.
+     */
+    public static class Handle<T> {
+        public final String name;
+        private final Kind kind;
+        private final Callable<T> factory;
+        private final Handle<?>[] dependencies;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private volatile boolean started = false;
+        private volatile double seconds = Double.NaN;
+        private volatile String thread;
+
+        private Handle(String name, Kind kind, Callable<T> factory, Handle<?>[] dependencies) {
+            this.name = name;
+            this.kind = kind;
+            this.factory = factory;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * @return the built object, building it now if it is lazy, or waiting
+         *         for it if it is being built on another thread
+         * @throws IllegalStateException if it is not lazy and buildAll() has
+         *                               not been called
+         */
+        public T get() {
+            if (kind == Kind.LAZY) {
+                synchronized (this) {
+                    if (!future.isDone()) build();
+                }
+            } else if (!started) {
+                throw new IllegalStateException(name + " has not been built; call SubsystemRegistry.buildAll() first");
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw new RuntimeException("Could not build " + name, e.getCause());
+            }
+        }
+
+        /**
+         * @return whether this has been built (successfully or not)
+         */
+        public boolean isBuilt() {
+            return future.isDone();
+        }
+
+        /**
+         * @return how long the factory took, or NaN if it has not run
+         */
+        public double getSeconds() {
+            return seconds;
+        }
+
+        private void build() {
+            started = true;
+            long start = System.nanoTime();
+            thread = Thread.currentThread().getName();
+            try {
+                for (Handle<?> dependency : dependencies) dependency.get();
+                start = System.nanoTime();    // time this factory only
+                future.complete(factory.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+        }
+
+        @Override
+        public String toString() {
+            String status = !future.isDone() ? "not built" : future.isCompletedExceptionally() ? "FAILED" : "ok";
+            return String.format("%s: %s in %.0fms (%s, %s)", name, status, seconds * 1000, kind.name().toLowerCase(), thread);
+        }
+    }
+
+    protected final int threads;
+    private final List<Handle<?>> handles = new ArrayList<>();
+
+    /**
+     * @param threads Number of register()ed objects built at once
+     */
+    public SubsystemRegistry(int threads) {
+        this.threads = threads;
+    }
+
+    public SubsystemRegistry() {
+        this(DEFAULT_THREADS);
+    }
+
+    private <T> Handle<T> add(String name, Kind kind, Callable<T> factory, Handle<?>[] dependencies) {
+        for (Handle<?> dependency : dependencies) {
+            if (!handles.contains(dependency)) {
+                throw new IllegalArgumentException(name + " depends on " + dependency.name + ", which is not registered here");
+            }
+        }
+        var handle = new Handle<T>(name, kind, factory, dependencies);
+        handles.add(handle);
+        return handle;
+    }
+
+    /**
+     * Registers hardware to be built on a worker thread. The factory must not
+     * construct subsystems or commands.
+     *
+     * @param name         Name used in the report
+     * @param factory      Builds it, eg. () -> new CANTalonFX(1)
+     * @param dependencies Handles the factory calls get() on
+     */
+    public <T> Handle<T> register(String name, Callable<T> factory, Handle<?>... dependencies) {
+        return add(name, Kind.PARALLEL, factory, dependencies);
+    }
+
+    /**
+     * Registers a subsystem (or anything else) to be built on the main
+     * thread, after its dependencies.
+     */
+    public <T> Handle<T> registerSubsystem(String name, Callable<T> factory, Handle<?>... dependencies) {
+        return add(name, Kind.MAIN, factory, dependencies);
+    }
+
+    /**
+     * Registers something to be built the first time get() is called, on the
+     * thread that calls it. buildAll() does not build it.
+     */
+    public <T> Handle<T> registerLazy(String name, Callable<T> factory, Handle<?>... dependencies) {
+        return add(name, Kind.LAZY, factory, dependencies);
+    }
+
+    /**
+     * Builds everything registered and not lazy that has not been built yet,
+     * and prints a report. Must be called from the main thread.
+     *
+     * @throws RuntimeException if anything could not be built, after
+     *                          everything else has been
+     */
+    public synchronized void buildAll(double timeoutSeconds) {
+        var pending = new ArrayList<Handle<?>>();
+        for (Handle<?> handle : handles) {
+            if (handle.kind != Kind.LAZY && !handle.started) pending.add(handle);
+        }
+        if (pending.isEmpty()) return;
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "SubsystemRegistry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Handle<?> handle : pending) {
+            handle.started = true;
+            if (handle.kind != Kind.PARALLEL) continue;
+            // start once every non-lazy dependency is built; lazy ones are built by get() in the factory
+            var dependencies = new ArrayList<CompletableFuture<?>>();
+            for (Handle<?> dependency : handle.dependencies) {
+                if (dependency.kind != Kind.LAZY) dependencies.add(dependency.future);
+            }
+            CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                .whenCompleteAsync((result, error) -> handle.build(), executor);
+        }
+        RuntimeException failure = null;
+        for (Handle<?> handle : pending) {
+            if (handle.kind == Kind.MAIN) handle.build();
+        }
+        // wait for the builds rather than the executor: builds that depend on
+        // other parallel builds are only submitted when those finish
+        var futures = new CompletableFuture<?>[pending.size()];
+        for (int i = 0; i < futures.length; i++) futures[i] = pending.get(i).future;
+        try {
+            CompletableFuture.allOf(futures).get((long) (timeoutSeconds * 1000), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            failure = new IllegalStateException("SubsystemRegistry timed out after " + timeoutSeconds + "s");
+        } catch (ExecutionException e) {
+            // a build failed; reported below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        // so get() fails instead of waiting forever
+        for (Handle<?> handle : pending) {
+            if (!handle.future.isDone()) {
+                handle.future.completeExceptionally(new IllegalStateException(handle.name + " was not built within " + timeoutSeconds + "s"));
+            }
+        }
+        double total = 0;
+        for (Handle<?> handle : pending) {
+            if (!Double.isNaN(handle.seconds)) total += handle.seconds;
+            if (failure == null && handle.future.isCompletedExceptionally()) {
+                failure = new RuntimeException("Could not build " + handle.name, handle.future.handle((v, e) -> e).join());
+            }
+        }
+        System.out.printf("SubsystemRegistry: built %d in %.0fms (%.0fms if serial)%n", pending.size(),
+            (System.nanoTime() - start) / 1e6, total * 1000);
+        for (Handle<?> handle : pending) System.out.println("  " + handle);
+        if (failure != null) throw failure;
+    }
+
+    public void buildAll() {
+        buildAll(DEFAULT_TIMEOUT_SECONDS);
+    }
+}
@@ -0,0 +1,178 @@
+package org.usfirst.frc4904.standard.custom;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A hashed timer wheel for deadlines on the main robot thread, so commands
+ * that wait for a known time (WaitSeconds, SafetyCommand timeouts) do not each
+ * read the FPGA clock and compare it every tick. CommandRobotBase calls
+ * advance() once per tick before the CommandScheduler runs; it only looks at
+ * the wheel slots that came due since the last tick and fires their expired
+ * timeouts, so the cost per tick does not grow with the number of pending
+ * timeouts.
+ *
+ * Deadlines fire on the first advance() at or after them, so with the default
+ * resolution (one 20ms robot period) up to a tick late, like any polled
+ * timeout. Timeouts are reusable, and arming one does not allocate.
+ *
+ * Not thread safe: arm, cancel and advance from the main robot thread only.
+ */
+public final class TimerWheel {
+    private static final int SLOTS = 512;    // power of two; 10.24s per turn at the default resolution
+    public static final double DEFAULT_RESOLUTION = 0.02;    // seconds
+
+    private static final Timeout[] slots = new Timeout[SLOTS];
+    private static double resolution = DEFAULT_RESOLUTION;
+    private static double now = 0;
+    private static boolean advanced = false;    // until the first advance(), now() reads the FPGA clock
+    private static long nextTick = 0;    // first tick whose slot may still hold unexpired timeouts
+    private static int pending = 0;
+    private static long advances = 0;
+
+    private TimerWheel() {}
+
+    /**
+     * Something to run once, at a deadline.
+     */
+    public static final class Timeout {
+        private final Runnable callback;
+        private double deadline;
+        private int slot = -1;    // -1 when not armed
+        private boolean expired = false;    // since it was last armed
+        private long checkedAdvances;    // advances at the last hasExpired(), see there
+        private Timeout previous;
+        private Timeout next;
+
+        /**
+         * @param callback Run on the main thread when the timeout expires
+         */
+        public Timeout(Runnable callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Arms the timeout to expire seconds from now, replacing any deadline
+         * it was armed with.
+         */
+        public void arm(double seconds) {
+            cancel();
+            expired = false;
+            checkedAdvances = advances;
+            deadline = now() + seconds;
+            long tick = Math.max(tickOf(deadline), nextTick);
+            slot = (int) (tick & (SLOTS - 1));
+            next = slots[slot];
+            if (next != null) next.previous = this;
+            slots[slot] = this;
+            pending++;
+        }
+
+        /**
+         * Disarms the timeout, if it is armed.
+         */
+        public void cancel() {
+            if (slot < 0) return;
+            if (previous != null) previous.next = next;
+            else slots[slot] = next;
+            if (next != null) next.previous = previous;
+            previous = null;
+            next = null;
+            slot = -1;
+            pending--;
+        }
+
+        public boolean isArmed() {
+            return slot >= 0;
+        }
+
+        /**
+         * Polls the timeout, for code that may run without advance() being
+         * called (eg. on a robot base other than CommandRobotBase). While the
+         * wheel has been advanced since the last call this only reads a flag;
+         * otherwise it compares the deadline with the FPGA clock.
+         *
+         * @return whether it expired since it was last armed
+         */
+        public boolean hasExpired() {
+            if (expired) return true;
+            if (slot < 0) return false;    // cancelled
+            if (advances != checkedAdvances) {
+                checkedAdvances = advances;
+                return false;
+            }
+            return Timer.getFPGATimestamp() >= deadline;
+        }
+
+        /**
+         * @return the time it expires (or expired) at, in TimerWheel.now() time
+         */
+        public double getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static long tickOf(double time) {
+        return (long) Math.floor(time / resolution);
+    }
+
+    /**
+     * Sets the slot width. Only call before anything is armed.
+     */
+    public static void setResolution(double seconds) {
+        if (pending != 0) throw new IllegalStateException("TimerWheel resolution cannot change while timeouts are armed");
+        resolution = seconds;
+        nextTick = advanced ? tickOf(now) : 0;
+    }
+
+    /**
+     * @return the time passed to the last advance(), in seconds, or the FPGA
+     *         time if advance() has not been called yet (eg. in robotInit)
+     */
+    public static double now() {
+        return advanced ? now : Timer.getFPGATimestamp();
+    }
+
+    /**
+     * @return the number of armed timeouts
+     */
+    public static int getPending() {
+        return pending;
+    }
+
+    /**
+     * Moves the wheel to time and runs the callbacks of every timeout that has
+     * expired, in no particular order. Callbacks may arm or cancel timeouts.
+     *
+     * @param time The current time in seconds, eg. Timer.getFPGATimestamp()
+     */
+    public static void advance(double time) {
+        now = time;
+        advanced = true;
+        advances++;
+        long currentTick = tickOf(time);
+        if (pending == 0) {
+            nextTick = currentTick;
+            return;
+        }
+        // after a gap of a whole turn or more, every slot is due once
+        long firstTick = Math.max(nextTick, currentTick - SLOTS + 1);
+        for (long tick = firstTick; tick <= currentTick; tick++) expire((int) (tick & (SLOTS - 1)));
+        // the current tick's slot is checked again next time, for timeouts later in this tick or later turns
+        nextTick = currentTick;
+    }
+
+    private static void expire(int slot) {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadline <= now) {
+                timeout.cancel();
+                timeout.expired = true;
+                timeout.callback.run();
+                // the callback may have cancelled the next one; start over, expired ones are gone
+                if (next != null && next.slot != slot) next = slots[slot];
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.usfirst.frc4904.standard.custom;
+
+/**
+ * Something whose control path can be run ahead of time, without producing
+ * any output, so the JIT compiles it before it matters. See
+ * custom.profiling.WarmUp.
+ */
+@FunctionalInterface
+public interface Warmable {
+    /**
+     * Runs the control path once with representative inputs. Must not move
+     * anything: motor writes should go through a MotorWriteCoalescer, which
+     * drops them while WarmUp is running, or be skipped.
+     */
+    public void warmUp();
+}
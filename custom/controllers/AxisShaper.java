@@ -0,0 +1,174 @@
+package org.usfirst.frc4904.standard.custom.controllers;
+
+import java.util.function.DoubleUnaryOperator;
+
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+
+/**
+ * Shapes a controller axis: a deadzone, then a response curve, then an
+ * optional slew rate limit. The curve is sampled into a lookup table once,
+ * when the shaper is made, and interpolated linearly, so expo or power curves
+ * cost a table lookup per axis per tick instead of a Math.pow. Curves are
+ * given for inputs in [0, 1] and mirrored for negative inputs; inputs are
+ * clamped to [-1, 1].
+ *
+ * Set shapers on CustomCommandJoystick or CustomCommandXbox to have the
+ * HumanInputSnapshot apply them once per tick, or call shape() from a Driver
+ * once per tick. Shaping does not allocate.
+ *
+ * shape(value) keeps the slew rate state of one axis in the shaper, so a
+ * shaper used that way must not be shared between axes. The controllers keep
+ * that state per axis and call shape(value, lastOutput, deltaTime) instead,
+ * so one shaper can be set on any number of axes.
+ */
+public class AxisShaper {
+    public static final int DEFAULT_RESOLUTION = 256;
+
+    private final double[] table;    // curve(i / (table.length - 1))
+    private double deadzone = 0;
+    private double slewRate = Double.POSITIVE_INFINITY;
+    private double lastOutput = 0;
+    private double lastTime = Double.NaN;
+
+    /**
+     * @param curve      The output for inputs in [0, 1]; should go from 0 to 1
+     * @param resolution Number of samples in the lookup table, at least 2
+     */
+    public AxisShaper(DoubleUnaryOperator curve, int resolution) {
+        if (resolution < 2) throw new IllegalArgumentException("AxisShaper resolution must be at least 2");
+        table = new double[resolution];
+        for (int i = 0; i < resolution; i++) table[i] = curve.applyAsDouble((double) i / (resolution - 1));
+    }
+
+    public AxisShaper(DoubleUnaryOperator curve) {
+        this(curve, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * @return a shaper that only applies its deadzone and slew rate
+     */
+    public static AxisShaper linear() {
+        return new AxisShaper(x -> x, 2);
+    }
+
+    /**
+     * @param exponent eg. 2 for squared or 3 for cubic inputs
+     */
+    public static AxisShaper power(double exponent) {
+        return new AxisShaper(x -> Math.pow(x, exponent));
+    }
+
+    /**
+     * The usual RC "expo": a blend of linear and cubic.
+     *
+     * @param expo 0 for linear, 1 for cubic
+     */
+    public static AxisShaper expo(double expo) {
+        if (expo < 0 || expo > 1) throw new IllegalArgumentException("AxisShaper expo must be in [0, 1]");
+        return new AxisShaper(x -> (1 - expo) * x + expo * x * x * x);
+    }
+
+    /**
+     * A curve through the given points, linear between them.
+     *
+     * @param points Input and output pairs, eg. 0, 0, 0.5, 0.2, 1, 1, with
+     *               inputs increasing from 0 to 1
+     */
+    public static AxisShaper piecewise(double... points) {
+        if (points.length < 4 || points.length % 2 != 0) {
+            throw new IllegalArgumentException("AxisShaper.piecewise needs at least two input and output pairs");
+        }
+        for (int i = 2; i < points.length; i += 2) {
+            if (points[i] <= points[i - 2]) throw new IllegalArgumentException("AxisShaper.piecewise inputs must increase");
+        }
+        if (points[0] != 0 || points[points.length - 2] != 1) {
+            throw new IllegalArgumentException("AxisShaper.piecewise inputs must go from 0 to 1");
+        }
+        return new AxisShaper(x -> {
+            int i = 2;
+            while (i < points.length - 2 && points[i] < x) i += 2;
+            double t = (x - points[i - 2]) / (points[i] - points[i - 2]);
+            return points[i - 1] + t * (points[i + 1] - points[i - 1]);
+        }, 1024);
+    }
+
+    /**
+     * Inputs smaller than deadzone give 0; the rest of the range is rescaled
+     * to start at 0, so the output does not jump at the edge.
+     */
+    public AxisShaper setDeadzone(double deadzone) {
+        if (deadzone < 0 || deadzone >= 1) throw new IllegalArgumentException("AxisShaper deadzone must be in [0, 1)");
+        this.deadzone = deadzone;
+        return this;
+    }
+
+    /**
+     * @param unitsPerSecond Fastest the output of shape() may change, in full
+     *                       scale per second (eg. 2 takes 0.5s from 0 to 1),
+     *                       or infinity for no limit
+     */
+    public AxisShaper setSlewRate(double unitsPerSecond) {
+        if (!(unitsPerSecond > 0)) throw new IllegalArgumentException("AxisShaper slew rate must be positive");
+        this.slewRate = unitsPerSecond;
+        return this;
+    }
+
+    public double getDeadzone() {
+        return deadzone;
+    }
+
+    public double getSlewRate() {
+        return slewRate;
+    }
+
+    /**
+     * Applies the deadzone and the curve. Does not slew rate limit, so it can
+     * be called any number of times.
+     */
+    public double curve(double value) {
+        double magnitude = Math.min(Math.abs(value), 1);
+        if (magnitude <= deadzone) return 0;
+        double position = (magnitude - deadzone) / (1 - deadzone) * (table.length - 1);
+        int index = (int) position;
+        if (index >= table.length - 1) return Math.copySign(table[table.length - 1], value);
+        double fraction = position - index;
+        return Math.copySign(table[index] + fraction * (table[index + 1] - table[index]), value);
+    }
+
+    /**
+     * Applies the deadzone, the curve and the slew rate limit, against the
+     * output of the last call. Time is that of the current tick
+     * (TimerWheel.now()), so calling this more than once in a tick with the
+     * same input gives the same output. For a single axis only (see above).
+     */
+    public double shape(double value) {
+        double now = TimerWheel.now();
+        lastOutput = shape(value, lastOutput, now - lastTime);
+        lastTime = now;
+        return lastOutput;
+    }
+
+    /**
+     * Applies the deadzone, the curve and the slew rate limit, against
+     * lastOutput. Keeps no state, so the caller keeps lastOutput and its time
+     * for each axis.
+     *
+     * @param deltaTime Seconds since lastOutput, or NaN to not slew rate
+     *                  limit (eg. the first time)
+     */
+    public double shape(double value, double lastOutput, double deltaTime) {
+        double target = curve(value);
+        if (slewRate != Double.POSITIVE_INFINITY && !Double.isNaN(deltaTime)) {
+            double limit = slewRate * deltaTime;
+            target = Math.max(lastOutput - limit, Math.min(lastOutput + limit, target));
+        }
+        return target;
+    }
+
+    /**
+     * Forgets the last output, so the next shape() is not slew rate limited.
+     */
+    public void reset() {
+        lastTime = Double.NaN;
+    }
+}
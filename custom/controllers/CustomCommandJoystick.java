@@ -1,5 +1,9 @@
 package org.usfirst.frc4904.standard.custom.controllers;
 
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+import org.usfirst.frc4904.standard.humaninput.HumanInputSnapshot;
+
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Joystick;
 import edu.wpi.first.wpilibj2.command.button.JoystickButton;
@@ -8,15 +12,36 @@ import edu.wpi.first.wpilibj2.command.button.JoystickButton;
  * A joystick that implements the generic controller interface and the 2023
  * trigger interface. This allows us to use a joystick as a controller. This
  * contains 12 buttons to reflect the joysticks we are typically using.
+ * Axes and buttons are read once per tick into a HumanInputSnapshot, through
+ * InputReplay. Axes get the joystick's deadzone, or the AxisShaper or
+ * StickShaper set for them. While the snapshot is not live, every read
+ * captures again.
  * 
  * TO DO: should probably extend or be replaced with https://github.wpilib.org/allwpilib/docs/release/java/edu/wpi/first/wpilibj2/command/button/CommandJoystick.html
  */
-public class CustomCommandJoystick extends Joystick {
+public class CustomCommandJoystick extends Joystick implements HumanInputSnapshot.Source {
 	public static final int X_AXIS = 0;
 	public static final int Y_AXIS = 1;
 	public static final int SLIDER_AXIS = 3;
 	protected final double deadzone;
 	protected final int port;
+	private static final int MAX_AXES = 12;	// the Driver Station sends up to 12 axes and 32 buttons
+	private final short[] axisChannels = new short[MAX_AXES];
+	private final short axisCountChannel;
+	private final short buttonsChannel;
+	private final short buttonCountChannel;
+	// snapshot, see capture()
+	private final double[] rawAxes = new double[MAX_AXES];
+	private final double[] axes = new double[MAX_AXES];
+	private int buttons;
+	private int buttonCount;
+	private final AxisShaper[] axisShapers = new AxisShaper[MAX_AXES];
+	// last AxisShaper output of each axis and its time, for the slew rate limit; kept here so shapers can be shared
+	private final double[] shapedAxes = new double[MAX_AXES];
+	private final double[] shapedTimes = new double[MAX_AXES];
+	private StickShaper stickShaper;
+	private int stickXAxis;
+	private int stickYAxis;
 	// Buttons
 	public final JoystickButton button1;
 	public final JoystickButton button2;
@@ -39,6 +64,12 @@ public class CustomCommandJoystick extends Joystick {
 		this.deadzone = deadzone;
 		this.port = port;
 		deadzone = 0;
+		for (int axis = 0; axis < axisChannels.length; axis++) {
+			axisChannels[axis] = InputReplay.channel("Joystick " + port + " axis " + axis);
+		}
+		axisCountChannel = InputReplay.channel("Joystick " + port + " axis count");
+		buttonsChannel = InputReplay.channel("Joystick " + port + " buttons");
+		buttonCountChannel = InputReplay.channel("Joystick " + port + " button count");
 		button1  = new JoystickButton(this, 1);
 		button2  = new JoystickButton(this, 2);
 		button3  = new JoystickButton(this, 3);
@@ -51,6 +82,63 @@ public class CustomCommandJoystick extends Joystick {
 		button10 = new JoystickButton(this, 10);
 		button11 = new JoystickButton(this, 11);
 		button12 = new JoystickButton(this, 12);
+		HumanInputSnapshot.register(this);
+	}
+
+	/**
+	 * Reads every axis and button. Called every tick by HumanInputSnapshot.
+	 */
+	@Override
+	public void capture() {
+		int axisCount = (int) InputReplay.value(axisCountChannel, Math.min(getAxisCount(), MAX_AXES));
+		double now = TimerWheel.now();
+		for (int axis = 0; axis < MAX_AXES; axis++) {
+			rawAxes[axis] = axis < axisCount ? InputReplay.value(axisChannels[axis], super.getRawAxis(axis)) : 0;
+			axes[axis] = axisShapers[axis] != null ? shapeAxis(axis, now) : applyDeadzone(rawAxes[axis]);
+		}
+		if (stickShaper != null) {
+			stickShaper.shape(rawAxes[stickXAxis], rawAxes[stickYAxis]);
+			axes[stickXAxis] = stickShaper.getX();
+			axes[stickYAxis] = stickShaper.getY();
+		}
+		buttons = (int) InputReplay.value(buttonsChannel, DriverStation.getStickButtons(port));
+		buttonCount = (int) InputReplay.value(buttonCountChannel, DriverStation.getStickButtonCount(port));
+	}
+
+	private void captureIfNotLive() {
+		if (!HumanInputSnapshot.isLive()) capture();
+	}
+
+	private double shapeAxis(int axis, double now) {
+		shapedAxes[axis] = axisShapers[axis].shape(rawAxes[axis], shapedAxes[axis], now - shapedTimes[axis]);
+		shapedTimes[axis] = now;
+		return shapedAxes[axis];
+	}
+
+	/**
+	 * Shapes an axis with shaper instead of the joystick's deadzone, from the
+	 * next tick on. The same shaper may be set on several axes.
+	 *
+	 * @param shaper The shaper, or null for the deadzone
+	 */
+	public void setAxisShaper(int axis, AxisShaper shaper) {
+		axisShapers[axis] = shaper;
+		shapedTimes[axis] = Double.NaN;	// do not slew rate limit from whatever the axis last was
+	}
+
+	/**
+	 * Shapes two axes as a 2D stick (eg. X_AXIS and Y_AXIS) with a radial
+	 * deadzone and curve, instead of axis by axis, from the next tick on.
+	 *
+	 * @param shaper The shaper, or null to shape the axes separately again
+	 */
+	public void setStickShaper(int xAxis, int yAxis, StickShaper shaper) {
+		if (xAxis < 0 || xAxis >= MAX_AXES || yAxis < 0 || yAxis >= MAX_AXES) {
+			throw new IllegalArgumentException("Joystick axes must be in [0, " + MAX_AXES + ")");
+		}
+		stickXAxis = xAxis;
+		stickYAxis = yAxis;
+		stickShaper = shaper;
 	}
 
 	/**
@@ -77,18 +165,45 @@ public class CustomCommandJoystick extends Joystick {
 	 * @return
 	 */
 	public boolean connected() {
-		return DriverStation.getStickButtonCount(port) > 0;
+		captureIfNotLive();
+		return buttonCount > 0;
 	}
 
 	/**
-	 * Returns the value of the given axis.
+	 * Returns the value of the given axis, after the deadzone or shaping, as of
+	 * the start of this tick.
 	 */
 	public double getAxis(int axis) {
-		double val = super.getRawAxis(axis);
+		if (axis < 0 || axis >= MAX_AXES) return applyDeadzone(super.getRawAxis(axis));
+		captureIfNotLive();
+		return axes[axis];
+	}
+
+	private double applyDeadzone(double val) {
 		if (Math.abs(val) < deadzone) {
 			return 0.0;
 		}
 		return (val - Math.signum(val)*deadzone)/(1-deadzone);	// linear between 0 and 1 in the remaining range
-		// return super.getRawAxis(axis);
+	}
+
+	/**
+	 * Returns the value of the given axis as of the start of this tick.
+	 */
+	@Override
+	public double getRawAxis(int axis) {
+		if (axis < 0 || axis >= MAX_AXES) return super.getRawAxis(axis);
+		captureIfNotLive();
+		return rawAxes[axis];
+	}
+
+	/**
+	 * Returns whether the given button (1-32) was pressed at the start of this
+	 * tick.
+	 */
+	@Override
+	public boolean getRawButton(int button) {
+		if (button < 1 || button > 32) return super.getRawButton(button);
+		captureIfNotLive();
+		return (buttons & (1 << (button - 1))) != 0;
 	}
 }
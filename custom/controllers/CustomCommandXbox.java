@@ -1,10 +1,51 @@
 package org.usfirst.frc4904.standard.custom.controllers;
 
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+import org.usfirst.frc4904.standard.humaninput.HumanInputSnapshot;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.event.EventLoop;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+
+/**
+ * An Xbox controller with a deadzone on every axis, or the AxisShaper or
+ * StickShaper set for it. Axes, buttons and the POV are read once per tick
+ * into a HumanInputSnapshot, through InputReplay, and the Triggers made by the
+ * CommandXboxController methods (a(), leftBumper(), povUp(), leftTrigger()
+ * and so on) read the snapshot too. Trigger thresholds apply to the raw
+ * trigger axes, as in CommandXboxController. While the snapshot is not live,
+ * every read captures again.
+ */
+public class CustomCommandXbox extends CommandXboxController implements HumanInputSnapshot.Source {
+  // axes, for setAxisShaper()
+  public static final int LEFT_X = 0;
+  public static final int RIGHT_X = 1;
+  public static final int LEFT_Y = 2;
+  public static final int RIGHT_Y = 3;
+  public static final int LEFT_TRIGGER = 4;
+  public static final int RIGHT_TRIGGER = 5;
+  private static final String[] AXIS_NAMES = { "left x", "right x", "left y", "right y", "left trigger", "right trigger" };
 
-public class CustomCommandXbox extends CommandXboxController {
   private final double deadZoneSize;
   private final CommandXboxController m_hid;
+  private final int port;
+  private final short[] axisChannels = new short[AXIS_NAMES.length];
+  private final short buttonsChannel;
+  private final short povChannel;
+  // snapshot, see capture()
+  private final double[] rawAxes = new double[AXIS_NAMES.length];
+  private final double[] axes = new double[AXIS_NAMES.length];
+  private int buttons;
+  private int pov;
+  private final AxisShaper[] axisShapers = new AxisShaper[AXIS_NAMES.length];
+  // last AxisShaper output of each axis and its time, for the slew rate limit; kept here so shapers can be shared
+  private final double[] shapedAxes = new double[AXIS_NAMES.length];
+  private final double[] shapedTimes = new double[AXIS_NAMES.length];
+  private StickShaper leftStickShaper;
+  private StickShaper rightStickShaper;
 
   public CustomCommandXbox(int port, double deadZoneSize) {
     super(port);
@@ -13,10 +54,100 @@ public class CustomCommandXbox extends CommandXboxController {
       throw new IllegalArgumentException("CustomCommandXBox deadzone must be in [0, 1]");
     }
     this.deadZoneSize = deadZoneSize;
+    this.port = port;
+    for (int axis = 0; axis < axisChannels.length; axis++) {
+      axisChannels[axis] = InputReplay.channel("Xbox " + port + " " + AXIS_NAMES[axis]);
+    }
+    buttonsChannel = InputReplay.channel("Xbox " + port + " buttons");
+    povChannel = InputReplay.channel("Xbox " + port + " pov");
+    HumanInputSnapshot.register(this);
+  }
+
+  /**
+   * Reads every axis and button. Called every tick by HumanInputSnapshot.
+   */
+  @Override
+  public void capture() {
+    rawAxes[LEFT_X] = m_hid.getLeftX();
+    rawAxes[RIGHT_X] = m_hid.getRightX();
+    rawAxes[LEFT_Y] = m_hid.getLeftY();
+    rawAxes[RIGHT_Y] = m_hid.getRightY();
+    rawAxes[LEFT_TRIGGER] = m_hid.getLeftTriggerAxis();
+    rawAxes[RIGHT_TRIGGER] = m_hid.getRightTriggerAxis();
+    double now = TimerWheel.now();
+    for (int axis = 0; axis < rawAxes.length; axis++) {
+      rawAxes[axis] = InputReplay.value(axisChannels[axis], rawAxes[axis]);
+      axes[axis] = axisShapers[axis] != null ? shapeAxis(axis, now) : applyDeadzone(rawAxes[axis], deadZoneSize);
+    }
+    shapeStick(leftStickShaper, LEFT_X, LEFT_Y);
+    shapeStick(rightStickShaper, RIGHT_X, RIGHT_Y);
+    buttons = (int) InputReplay.value(buttonsChannel, DriverStation.getStickButtons(port));
+    pov = (int) InputReplay.value(povChannel, DriverStation.getStickPOV(port, 0));
+  }
+
+  private void captureIfNotLive() {
+    if (!HumanInputSnapshot.isLive()) capture();
+  }
+
+  private double shapeAxis(int axis, double now) {
+    shapedAxes[axis] = axisShapers[axis].shape(rawAxes[axis], shapedAxes[axis], now - shapedTimes[axis]);
+    shapedTimes[axis] = now;
+    return shapedAxes[axis];
+  }
+
+  private void shapeStick(StickShaper shaper, int xAxis, int yAxis) {
+    if (shaper == null) return;
+    shaper.shape(rawAxes[xAxis], rawAxes[yAxis]);
+    axes[xAxis] = shaper.getX();
+    axes[yAxis] = shaper.getY();
+  }
+
+  /**
+   * Shapes an axis with shaper instead of the deadzone, from the next tick on.
+   * The same shaper may be set on several axes.
+   *
+   * @param axis   LEFT_X, RIGHT_X, LEFT_Y, RIGHT_Y, LEFT_TRIGGER or
+   *               RIGHT_TRIGGER
+   * @param shaper The shaper, or null for the deadzone
+   */
+  public void setAxisShaper(int axis, AxisShaper shaper) {
+    axisShapers[axis] = shaper;
+    shapedTimes[axis] = Double.NaN;  // do not slew rate limit from whatever the axis last was
+  }
+
+  /**
+   * Shapes the left stick as a 2D stick, with a radial deadzone and curve,
+   * from the next tick on.
+   *
+   * @param shaper The shaper, or null to shape the axes separately again; not
+   *               the right stick's, as a StickShaper keeps its stick's state
+   */
+  public void setLeftStickShaper(StickShaper shaper) {
+    if (shaper != null && shaper == rightStickShaper) {
+      throw new IllegalArgumentException("CustomCommandXbox sticks need separate StickShapers");
+    }
+    leftStickShaper = shaper;
+  }
+
+  /**
+   * Like setLeftStickShaper(), for the right stick.
+   */
+  public void setRightStickShaper(StickShaper shaper) {
+    if (shaper != null && shaper == leftStickShaper) {
+      throw new IllegalArgumentException("CustomCommandXbox sticks need separate StickShapers");
+    }
+    rightStickShaper = shaper;
   }
 
+  /**
+   * Get the X axis value of left side of the controller, as of the start of
+   * this tick.
+   *
+   * @return The axis value.
+   */
   public double getLeftX() {
-    return applyDeadzone(m_hid.getLeftX(), deadZoneSize);
+    captureIfNotLive();
+    return axes[LEFT_X];
   }
 
   /**
@@ -25,7 +156,8 @@ public class CustomCommandXbox extends CommandXboxController {
    * @return The axis value.
    */
   public double getRightX() {
-    return applyDeadzone(m_hid.getRightX(), deadZoneSize);
+    captureIfNotLive();
+    return axes[RIGHT_X];
   }
 
   /**
@@ -34,7 +166,8 @@ public class CustomCommandXbox extends CommandXboxController {
    * @return The axis value.
    */
   public double getLeftY() {
-    return applyDeadzone(m_hid.getLeftY(), deadZoneSize);
+    captureIfNotLive();
+    return axes[LEFT_Y];
   }
 
   /**
@@ -43,17 +176,124 @@ public class CustomCommandXbox extends CommandXboxController {
    * @return The axis value.
    */
   public double getRightY() {
-    return applyDeadzone(m_hid.getRightY(), deadZoneSize);
+    captureIfNotLive();
+    return axes[RIGHT_Y];
   }
 
   @Override
   public double getRightTriggerAxis() {
-    return applyDeadzone(m_hid.getRightTriggerAxis(), deadZoneSize);
+    captureIfNotLive();
+    return axes[RIGHT_TRIGGER];
   }
 
   @Override
   public double getLeftTriggerAxis() {
-    return applyDeadzone(m_hid.getLeftTriggerAxis(), deadZoneSize);
+    captureIfNotLive();
+    return axes[LEFT_TRIGGER];
+  }
+
+  /**
+   * @param axis LEFT_X, RIGHT_X, LEFT_Y, RIGHT_Y, LEFT_TRIGGER or
+   *             RIGHT_TRIGGER
+   * @return the axis at the start of this tick, before the deadzone or
+   *         shaping
+   */
+  public double getUnshapedAxis(int axis) {
+    captureIfNotLive();
+    return rawAxes[axis];
+  }
+
+  /**
+   * @param button The button number (see XboxController.Button), 1-32
+   * @return whether the button was pressed at the start of this tick
+   */
+  public boolean getRawButton(int button) {
+    if (button < 1 || button > 32) return false;
+    captureIfNotLive();
+    return (buttons & (1 << (button - 1))) != 0;
+  }
+
+  /**
+   * @return the angle of the POV (d-pad) at the start of this tick, in
+   *         degrees clockwise from up, or -1 if it was not pressed
+   */
+  public int getPOV() {
+    captureIfNotLive();
+    return pov;
+  }
+
+  @Override
+  public Trigger button(int button, EventLoop loop) {
+    return new Trigger(loop, () -> getRawButton(button));
+  }
+
+  @Override
+  public Trigger a(EventLoop loop) {
+    return button(XboxController.Button.kA.value, loop);
+  }
+
+  @Override
+  public Trigger b(EventLoop loop) {
+    return button(XboxController.Button.kB.value, loop);
+  }
+
+  @Override
+  public Trigger x(EventLoop loop) {
+    return button(XboxController.Button.kX.value, loop);
+  }
+
+  @Override
+  public Trigger y(EventLoop loop) {
+    return button(XboxController.Button.kY.value, loop);
+  }
+
+  @Override
+  public Trigger leftBumper(EventLoop loop) {
+    return button(XboxController.Button.kLeftBumper.value, loop);
+  }
+
+  @Override
+  public Trigger rightBumper(EventLoop loop) {
+    return button(XboxController.Button.kRightBumper.value, loop);
+  }
+
+  @Override
+  public Trigger back(EventLoop loop) {
+    return button(XboxController.Button.kBack.value, loop);
+  }
+
+  @Override
+  public Trigger start(EventLoop loop) {
+    return button(XboxController.Button.kStart.value, loop);
+  }
+
+  @Override
+  public Trigger leftStick(EventLoop loop) {
+    return button(XboxController.Button.kLeftStick.value, loop);
+  }
+
+  @Override
+  public Trigger rightStick(EventLoop loop) {
+    return button(XboxController.Button.kRightStick.value, loop);
+  }
+
+  /**
+   * Only the first POV is in the snapshot; Xbox controllers have no other.
+   */
+  @Override
+  public Trigger pov(int pov, int angle, EventLoop loop) {
+    if (pov != 0) return super.pov(pov, angle, loop);
+    return new Trigger(loop, () -> getPOV() == angle);
+  }
+
+  @Override
+  public Trigger leftTrigger(double threshold, EventLoop loop) {
+    return new Trigger(loop, () -> getUnshapedAxis(LEFT_TRIGGER) > threshold);
+  }
+
+  @Override
+  public Trigger rightTrigger(double threshold, EventLoop loop) {
+    return new Trigger(loop, () -> getUnshapedAxis(RIGHT_TRIGGER) > threshold);
   }
 
   public static double applyDeadzone(double input, double deadZoneSize) {
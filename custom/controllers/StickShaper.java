@@ -0,0 +1,74 @@
+package org.usfirst.frc4904.standard.custom.controllers;
+
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+
+/**
+ * Shapes a 2D stick by its distance from center instead of axis by axis: a
+ * radial deadzone and the curve of an AxisShaper are applied to the
+ * magnitude, keeping the direction, so diagonals are not cut off by a square
+ * deadzone and the corners do not go past full scale. The AxisShaper's slew
+ * rate limits how fast the point moves.
+ *
+ * shape() stores the result, read with getX() and getY(), so shaping does not
+ * allocate. The result is also the slew rate state, so use one StickShaper
+ * per stick.
+ */
+public class StickShaper {
+    private final AxisShaper magnitude;
+    private double x = 0;
+    private double y = 0;
+    private double lastTime = Double.NaN;
+
+    /**
+     * @param magnitude Deadzone, curve and slew rate, applied to the distance
+     *                  from center
+     */
+    public StickShaper(AxisShaper magnitude) {
+        this.magnitude = magnitude;
+    }
+
+    /**
+     * Shapes a stick position. Time is that of the current tick
+     * (TimerWheel.now()), as in AxisShaper.shape().
+     */
+    public void shape(double rawX, double rawY) {
+        double radius = Math.sqrt(rawX * rawX + rawY * rawY);
+        double targetX = 0;
+        double targetY = 0;
+        if (radius > 0) {
+            double scale = magnitude.curve(radius) / radius;
+            targetX = rawX * scale;
+            targetY = rawY * scale;
+        }
+        double now = TimerWheel.now();
+        double slewRate = magnitude.getSlewRate();
+        if (slewRate != Double.POSITIVE_INFINITY && !Double.isNaN(lastTime)) {
+            double limit = slewRate * (now - lastTime);
+            double dx = targetX - x;
+            double dy = targetY - y;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance > limit) {
+                targetX = x + dx * limit / distance;
+                targetY = y + dy * limit / distance;
+            }
+        }
+        x = targetX;
+        y = targetY;
+        lastTime = now;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Forgets the last position, so the next shape() is not slew rate limited.
+     */
+    public void reset() {
+        lastTime = Double.NaN;
+    }
+}
@@ -0,0 +1,74 @@
+package org.usfirst.frc4904.standard.custom.events;
+
+import edu.wpi.first.wpilibj.AsynchronousInterrupt;
+import edu.wpi.first.wpilibj.DigitalInput;
+
+/**
+ * Edges of a DigitalInput (eg. a limit switch or beam break). By default the
+ * edges come from an AsynchronousInterrupt, so the input is not polled at all
+ * and edges shorter than a tick are not missed. The roboRIO only has 8
+ * interrupts; if none is left, or if asked to, the input is polled once per
+ * tick instead.
+ */
+public class DigitalEdgeSource extends EdgeSource {
+    protected final DigitalInput input;
+    protected final boolean inverted;
+    private AsynchronousInterrupt interrupt;
+
+    /**
+     * @param name         Name, for debugging
+     * @param input        The digital input
+     * @param inverted     Whether the source is high when the input reads
+     *                     false (eg. normally open switches with the pull-up)
+     * @param useInterrupt Whether to use an interrupt rather than polling
+     */
+    public DigitalEdgeSource(String name, DigitalInput input, boolean inverted, boolean useInterrupt) {
+        super(name, input.get() != inverted);
+        this.input = input;
+        this.inverted = inverted;
+        if (!useInterrupt) return;
+        try {
+            interrupt = new AsynchronousInterrupt(input, (rising, falling) -> {
+                if (rising && falling) {
+                    // both edges since the last callback (eg. a short pulse): the current level is that of the
+                    // later edge, so publish the opposite one first, then it
+                    boolean level = input.get() != inverted;
+                    setHigh(!level);
+                    setHigh(level);
+                } else {
+                    setHigh(rising != inverted);
+                }
+            });
+            interrupt.setInterruptEdges(true, true);
+            interrupt.enable();
+        } catch (RuntimeException e) {
+            interrupt = null;
+            System.err.println("DigitalEdgeSource " + name + " could not get an interrupt, polling instead: " + e.getMessage());
+        }
+    }
+
+    public DigitalEdgeSource(String name, DigitalInput input, boolean inverted) {
+        this(name, input, inverted, true);
+    }
+
+    public DigitalEdgeSource(String name, int channel) {
+        this(name, new DigitalInput(channel), false);
+    }
+
+    /**
+     * @return whether edges come from an interrupt rather than polling
+     */
+    public boolean usesInterrupt() {
+        return interrupt != null;
+    }
+
+    @Override
+    protected boolean isPolled() {
+        return interrupt == null;
+    }
+
+    @Override
+    protected void poll() {
+        setHigh(input.get() != inverted);
+    }
+}
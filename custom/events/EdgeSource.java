@@ -0,0 +1,108 @@
+package org.usfirst.frc4904.standard.custom.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.wpilibj2.command.Command;
+
+/**
+ * A boolean input that publishes its rising and falling edges to the
+ * InputEventBus, instead of being polled by every Trigger bound to it.
+ * Handlers run on the main thread, in InputEventBus.dispatch(), once per edge.
+ *
+ * Subclasses either publish edges themselves (eg. from an interrupt) or
+ * override poll(), which the bus calls once per tick.
+ */
+public abstract class EdgeSource {
+    public final String name;
+    final int index;
+    private final List<Runnable> risingHandlers = new ArrayList<>();
+    private final List<Runnable> fallingHandlers = new ArrayList<>();
+    private volatile boolean high;
+
+    /**
+     * Registers the source with the InputEventBus.
+     *
+     * @param name        Name, for debugging
+     * @param initialHigh The current level of the input
+     */
+    protected EdgeSource(String name, boolean initialHigh) {
+        this.name = name;
+        this.high = initialHigh;
+        this.index = InputEventBus.register(this);
+    }
+
+    /**
+     * @return the level of the input as of its last published edge
+     */
+    public boolean isHigh() {
+        return high;
+    }
+
+    /**
+     * Publishes a change in level, if it is one. Safe to call from any
+     * thread; handlers run in the next InputEventBus.dispatch().
+     */
+    protected void setHigh(boolean high) {
+        if (high == this.high) return;
+        this.high = high;
+        InputEventBus.publish(this, high);
+    }
+
+    /**
+     * Samples the input and publishes an edge if it changed. Called once per
+     * tick by InputEventBus.dispatch(); does nothing unless overridden.
+     */
+    protected void poll() {}
+
+    /**
+     * @return whether poll() needs to be called every tick
+     */
+    protected boolean isPolled() {
+        return false;
+    }
+
+    void fire(boolean rising) {
+        List<Runnable> handlers = rising ? risingHandlers : fallingHandlers;
+        for (int i = 0; i < handlers.size(); i++) handlers.get(i).run();
+    }
+
+    /**
+     * Runs handler on the main thread on every rising edge.
+     */
+    public EdgeSource onRising(Runnable handler) {
+        risingHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Runs handler on the main thread on every falling edge.
+     */
+    public EdgeSource onFalling(Runnable handler) {
+        fallingHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Schedules command on every rising edge, like Trigger.onTrue().
+     */
+    public EdgeSource onTrue(Command command) {
+        return onRising(command::schedule);
+    }
+
+    /**
+     * Schedules command on every falling edge, like Trigger.onFalse().
+     */
+    public EdgeSource onFalse(Command command) {
+        return onFalling(command::schedule);
+    }
+
+    /**
+     * Schedules command on rising edges and cancels it on falling edges, like
+     * Trigger.whileTrue().
+     */
+    public EdgeSource whileTrue(Command command) {
+        onRising(command::schedule);
+        return onFalling(command::cancel);
+    }
+}
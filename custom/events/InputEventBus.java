@@ -0,0 +1,87 @@
+package org.usfirst.frc4904.standard.custom.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queue of edge events from EdgeSources, dispatched to their handlers once
+ * per tick on the main thread. CommandRobotBase calls dispatch() before the
+ * CommandScheduler runs, so commands scheduled by handlers start that tick.
+ *
+ * Unlike Triggers, which the scheduler polls every tick whether or not
+ * anything changed, handlers only run when their edge happens: the cost per
+ * tick is one poll() per polled source plus the events, not the number of
+ * bindings. Sources backed by interrupts are not polled at all.
+ *
+ * Events can be published from any thread (eg. interrupt handlers) and are
+ * kept in order in a fixed-size ring; if more than CAPACITY arrive between
+ * two dispatches, the oldest are dropped and counted.
+ */
+public final class InputEventBus {
+    public static final int CAPACITY = 256;
+
+    private static final List<EdgeSource> sources = new ArrayList<>();
+    private static EdgeSource[] registered = new EdgeSource[0];    // sources, copied on register so dispatch() can read it outside the lock
+    private static EdgeSource[] polled = new EdgeSource[0];
+    private static boolean polledStale = false;    // sources were registered since polled was collected
+    private static final int[] events = new int[CAPACITY];    // source index << 1 | rising
+    private static int head = 0;    // next event to dispatch
+    private static int size = 0;
+    private static long dropped = 0;
+    private static final int[] dispatching = new int[CAPACITY];
+
+    private InputEventBus() {}
+
+    static synchronized int register(EdgeSource source) {
+        sources.add(source);
+        registered = sources.toArray(new EdgeSource[0]);
+        polledStale = true;
+        return sources.size() - 1;
+    }
+
+    static synchronized void publish(EdgeSource source, boolean rising) {
+        if (size == CAPACITY) {
+            head = (head + 1) % CAPACITY;
+            size--;
+            dropped++;
+        }
+        events[(head + size) % CAPACITY] = source.index << 1 | (rising ? 1 : 0);
+        size++;
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full
+     */
+    public static synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Polls every polled source, then runs the handlers of every queued event,
+     * in the order they were published. Main thread only.
+     */
+    public static void dispatch() {
+        EdgeSource[] polled;
+        synchronized (InputEventBus.class) {
+            if (polledStale) {
+                var collected = new ArrayList<EdgeSource>();
+                for (EdgeSource source : sources) if (source.isPolled()) collected.add(source);
+                InputEventBus.polled = collected.toArray(new EdgeSource[0]);
+                polledStale = false;
+            }
+            polled = InputEventBus.polled;
+        }
+        for (EdgeSource source : polled) source.poll();
+        int count;
+        EdgeSource[] registered;
+        synchronized (InputEventBus.class) {
+            registered = InputEventBus.registered;    // includes the source of every queued event
+            count = size;
+            for (int i = 0; i < count; i++) dispatching[i] = events[(head + i) % CAPACITY];
+            head = (head + count) % CAPACITY;
+            size = 0;
+        }
+        // handlers run outside the lock, so they (and interrupts) can publish more events for the next tick
+        for (int i = 0; i < count; i++) registered[dispatching[i] >> 1].fire((dispatching[i] & 1) == 1);
+    }
+}
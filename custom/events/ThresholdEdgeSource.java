@@ -0,0 +1,45 @@
+package org.usfirst.frc4904.standard.custom.events;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Edges of a value crossing a threshold, eg. a CANSensor distance or an
+ * encoder position passing a mark. High once the value reaches the threshold,
+ * low again once it drops below threshold - hysteresis, so noise around the
+ * threshold does not publish a stream of edges. Polled once per tick.
+ */
+public class ThresholdEdgeSource extends EdgeSource {
+    protected final DoubleSupplier value;
+    protected final double threshold;
+    protected final double hysteresis;
+
+    /**
+     * @param name       Name, for debugging
+     * @param value      The value, read once per tick
+     * @param threshold  The value is high at or above this
+     * @param hysteresis How far below threshold the value must go to be low
+     *                   again
+     */
+    public ThresholdEdgeSource(String name, DoubleSupplier value, double threshold, double hysteresis) {
+        super(name, value.getAsDouble() >= threshold);
+        this.value = value;
+        this.threshold = threshold;
+        this.hysteresis = hysteresis;
+    }
+
+    public ThresholdEdgeSource(String name, DoubleSupplier value, double threshold) {
+        this(name, value, threshold, 0);
+    }
+
+    @Override
+    protected boolean isPolled() {
+        return true;
+    }
+
+    @Override
+    protected void poll() {
+        double current = value.getAsDouble();
+        if (!isHigh() && current >= threshold) setHigh(true);
+        else if (isHigh() && current < threshold - hysteresis) setHigh(false);
+    }
+}
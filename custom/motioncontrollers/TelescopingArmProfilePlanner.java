@@ -0,0 +1,304 @@
+package org.usfirst.frc4904.standard.custom.motioncontrollers;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import org.usfirst.frc4904.standard.custom.motioncontrollers.ezMotion.SetpointSupplier;
+import org.usfirst.frc4904.standard.subsystems.motor.TelescopingArmExtensionFeedForward;
+import org.usfirst.frc4904.standard.subsystems.motor.TelescopingArmPivotFeedForward;
+
+import edu.wpi.first.math.Pair;
+
+/**
+ * Plans coordinated pivot + extension moves for a telescoping arm that are
+ * (approximately) time-optimal under the state-dependent velocity and
+ * acceleration limits of TelescopingArmPivotFeedForward and
+ * TelescopingArmExtensionFeedForward, instead of running a conservative
+ * fixed trapezoid on each axis.
+ *
+ * Both joints move along a straight line in (angle, extension) space,
+ * parameterized by s in [0, 1]. The path is discretized, every node gets the
+ * fastest s-velocity both feedforwards can sustain, and a backward
+ * (deceleration) and forward (acceleration) pass bound the s-velocity by the
+ * achievable accelerations at each node. The result is sampled into a
+ * TelescopingArmTrajectory whose setpoint suppliers plug into ezMotion.
+ *
+ * A planner reuses its working arrays between plans, so it is not thread safe.
+ * Planning a move with the default 100 path steps takes well under a
+ * millisecond, so it can be done when a command initializes. Pass a
+ * TelescopingArmPivotFeedForwardTable to avoid the trig in the pivot limits.
+ */
+public class TelescopingArmProfilePlanner {
+    public static final int DEFAULT_PATH_STEPS = 100;
+    public static final double DEFAULT_SAMPLE_PERIOD = 0.02;
+    // fraction of the kinematic cap used when the feedforwards say a node is
+    // infeasible (eg. gravity wins at the requested voltage), so that the
+    // planner still makes progress instead of stalling on that node
+    private static final double INFEASIBLE_FLOOR = 0.01;
+
+    public final TelescopingArmPivotFeedForward pivotFF;
+    public final TelescopingArmExtensionFeedForward extensionFF;
+    public final double maxVoltage;
+    public final double fullExtensionMeters;
+    public final double pivotMaxVelocity;
+    public final double pivotMaxAcceleration;
+    public final double extensionMaxVelocity;
+    public final double extensionMaxAcceleration;
+    public final int pathSteps;
+    public final double samplePeriod;
+
+    private final double[] nodeVelocityLimit;
+    private final double[] nodeVelocity;
+    private final double[] nodeTime;
+
+    /**
+     * @param pivotFF                  Feedforward of the pivot motor.
+     * @param extensionFF              Feedforward of the extension motor.
+     * @param maxVoltage               Voltage the planner may assume is
+     *                                 available to each motor, eg. 10 to leave
+     *                                 headroom for feedback.
+     * @param fullExtensionMeters      Extension at which the arm is fully
+     *                                 (1.0) extended, used to convert
+     *                                 extension to the pivot feedforward's
+     *                                 extension ratio.
+     * @param pivotMaxVelocity         Kinematic cap on pivot speed, rad/s.
+     * @param pivotMaxAcceleration     Kinematic cap on pivot acceleration,
+     *                                 rad/s^2. Also used when the feedforward
+     *                                 has ka = 0 and so gives no bound.
+     * @param extensionMaxVelocity     Kinematic cap on extension speed, m/s.
+     * @param extensionMaxAcceleration Kinematic cap on extension acceleration,
+     *                                 m/s^2.
+     * @param pathSteps                Number of segments the path is split
+     *                                 into.
+     * @param samplePeriod             Period of the trajectory samples, in
+     *                                 seconds.
+     */
+    public TelescopingArmProfilePlanner(TelescopingArmPivotFeedForward pivotFF,
+            TelescopingArmExtensionFeedForward extensionFF, double maxVoltage, double fullExtensionMeters,
+            double pivotMaxVelocity, double pivotMaxAcceleration, double extensionMaxVelocity,
+            double extensionMaxAcceleration, int pathSteps, double samplePeriod) {
+        if (pathSteps < 1) throw new IllegalArgumentException("Profile planner needs at least one path step");
+        if (!(samplePeriod > 0)) throw new IllegalArgumentException("Profile planner sample period must be positive");
+        if (!(pivotMaxVelocity > 0 && pivotMaxAcceleration > 0 && extensionMaxVelocity > 0 && extensionMaxAcceleration > 0)) {
+            throw new IllegalArgumentException("Profile planner velocity and acceleration caps must be positive");
+        }
+        this.pivotFF = pivotFF;
+        this.extensionFF = extensionFF;
+        this.maxVoltage = maxVoltage;
+        this.fullExtensionMeters = fullExtensionMeters;
+        this.pivotMaxVelocity = pivotMaxVelocity;
+        this.pivotMaxAcceleration = pivotMaxAcceleration;
+        this.extensionMaxVelocity = extensionMaxVelocity;
+        this.extensionMaxAcceleration = extensionMaxAcceleration;
+        this.pathSteps = pathSteps;
+        this.samplePeriod = samplePeriod;
+        this.nodeVelocityLimit = new double[pathSteps + 1];
+        this.nodeVelocity = new double[pathSteps + 1];
+        this.nodeTime = new double[pathSteps + 1];
+    }
+
+    /**
+     * Planner with DEFAULT_PATH_STEPS path steps and trajectory samples every
+     * DEFAULT_SAMPLE_PERIOD seconds (one robot loop).
+     *
+     * @see #TelescopingArmProfilePlanner(TelescopingArmPivotFeedForward, TelescopingArmExtensionFeedForward, double, double, double, double, double, double, int, double)
+     */
+    public TelescopingArmProfilePlanner(TelescopingArmPivotFeedForward pivotFF,
+            TelescopingArmExtensionFeedForward extensionFF, double maxVoltage, double fullExtensionMeters,
+            double pivotMaxVelocity, double pivotMaxAcceleration, double extensionMaxVelocity,
+            double extensionMaxAcceleration) {
+        this(pivotFF, extensionFF, maxVoltage, fullExtensionMeters, pivotMaxVelocity, pivotMaxAcceleration,
+                extensionMaxVelocity, extensionMaxAcceleration, DEFAULT_PATH_STEPS, DEFAULT_SAMPLE_PERIOD);
+    }
+
+    // feedforward bounds are NaN or infinite when kv or ka is zero; fall back to the kinematic cap then
+    private static double upper(double bound, double cap) {
+        return Double.isNaN(bound) ? cap : Math.min(bound, cap);
+    }
+
+    private static double lower(double bound, double cap) {
+        return Double.isNaN(bound) ? -cap : Math.max(bound, -cap);
+    }
+
+    /**
+     * Intersects the s-acceleration interval allowed by one joint with
+     * [lo, hi], where the joint moves jointDelta per unit of s.
+     *
+     * @return the new bound selected by wantMax
+     */
+    private static double limitPathAcceleration(double current, double jointDelta, double jointMin, double jointMax,
+            boolean wantMax) {
+        if (jointDelta == 0) return current;
+        double a = jointMin / jointDelta;
+        double b = jointMax / jointDelta;
+        return wantMax ? Math.min(current, Math.max(a, b)) : Math.max(current, Math.min(a, b));
+    }
+
+    /**
+     * @return the largest (wantMax) or smallest s-acceleration both joints can
+     *         achieve at path parameter s and s-velocity sDot.
+     */
+    private double pathAcceleration(double startAngle, double angleDelta, double startExtension,
+            double extensionDelta, double s, double sDot, boolean wantMax) {
+        double angle = startAngle + angleDelta * s;
+        double extension = startExtension + extensionDelta * s;
+        double ratio = extension / fullExtensionMeters;
+        double pivotVelocity = angleDelta * sDot;
+        double extensionVelocity = extensionDelta * sDot;
+        double bound = wantMax ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        bound = limitPathAcceleration(bound, angleDelta,
+                lower(pivotFF.minAchievableAcceleration(maxVoltage, ratio, angle, pivotVelocity), pivotMaxAcceleration),
+                upper(pivotFF.maxAchievableAcceleration(maxVoltage, ratio, angle, pivotVelocity), pivotMaxAcceleration),
+                wantMax);
+        bound = limitPathAcceleration(bound, extensionDelta,
+                lower(extensionFF.minAchievableAcceleration(maxVoltage, angle, extensionVelocity), extensionMaxAcceleration),
+                upper(extensionFF.maxAchievableAcceleration(maxVoltage, angle, extensionVelocity), extensionMaxAcceleration),
+                wantMax);
+        return bound;
+    }
+
+    /**
+     * @return the largest s-velocity both joints can hold at path parameter s.
+     */
+    private double pathVelocityLimit(double startAngle, double angleDelta, double startExtension,
+            double extensionDelta, double s) {
+        double angle = startAngle + angleDelta * s;
+        double extension = startExtension + extensionDelta * s;
+        double limit = Double.POSITIVE_INFINITY;
+        if (angleDelta > 0) {
+            double ratio = extension / fullExtensionMeters;
+            limit = Math.min(limit, upper(pivotFF.maxAchievableVelocity(maxVoltage, ratio, angle, 0), pivotMaxVelocity) / angleDelta);
+        } else if (angleDelta < 0) {
+            double ratio = extension / fullExtensionMeters;
+            limit = Math.min(limit, lower(pivotFF.minAchievableVelocity(maxVoltage, ratio, angle, 0), pivotMaxVelocity) / angleDelta);
+        }
+        if (extensionDelta > 0) {
+            limit = Math.min(limit, upper(extensionFF.maxAchievableVelocity(maxVoltage, angle, 0), extensionMaxVelocity) / extensionDelta);
+        } else if (extensionDelta < 0) {
+            limit = Math.min(limit, lower(extensionFF.minAchievableVelocity(maxVoltage, angle, 0), extensionMaxVelocity) / extensionDelta);
+        }
+        return limit;
+    }
+
+    /**
+     * Plans a move from rest to rest.
+     *
+     * @param startAngle     Starting pivot angle, radians from horizontal.
+     * @param startExtension Starting extension, meters.
+     * @param endAngle       Target pivot angle, radians from horizontal.
+     * @param endExtension   Target extension, meters.
+     * @return the sampled trajectory
+     */
+    public TelescopingArmTrajectory plan(double startAngle, double startExtension, double endAngle,
+            double endExtension) {
+        double angleDelta = endAngle - startAngle;
+        double extensionDelta = endExtension - startExtension;
+        if (angleDelta == 0 && extensionDelta == 0) {
+            return new TelescopingArmTrajectory(samplePeriod, 0, new double[] { startAngle }, new double[1],
+                    new double[1], new double[] { startExtension }, new double[1], new double[1]);
+        }
+        int n = pathSteps;
+        double ds = 1.0 / n;
+        // kinematic caps expressed in s units, used as floors where the feedforwards leave nothing
+        double capVelocity = Double.POSITIVE_INFINITY;
+        double capAcceleration = Double.POSITIVE_INFINITY;
+        if (angleDelta != 0) {
+            capVelocity = Math.min(capVelocity, pivotMaxVelocity / Math.abs(angleDelta));
+            capAcceleration = Math.min(capAcceleration, pivotMaxAcceleration / Math.abs(angleDelta));
+        }
+        if (extensionDelta != 0) {
+            capVelocity = Math.min(capVelocity, extensionMaxVelocity / Math.abs(extensionDelta));
+            capAcceleration = Math.min(capAcceleration, extensionMaxAcceleration / Math.abs(extensionDelta));
+        }
+        double velocityFloor = capVelocity * INFEASIBLE_FLOOR;
+        double accelerationFloor = capAcceleration * INFEASIBLE_FLOOR;
+
+        for (int i = 0; i <= n; i++) {
+            nodeVelocityLimit[i] = Math.max(velocityFloor,
+                    pathVelocityLimit(startAngle, angleDelta, startExtension, extensionDelta, i * ds));
+        }
+        // backward pass: make sure we can always decelerate to rest at the end
+        nodeVelocity[n] = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            double deceleration = Math.max(accelerationFloor,
+                    -pathAcceleration(startAngle, angleDelta, startExtension, extensionDelta, (i + 1) * ds, nodeVelocity[i + 1], false));
+            nodeVelocity[i] = Math.min(nodeVelocityLimit[i],
+                    Math.sqrt(nodeVelocity[i + 1] * nodeVelocity[i + 1] + 2 * deceleration * ds));
+        }
+        // forward pass: accelerate as hard as possible from rest
+        nodeVelocity[0] = 0;
+        nodeTime[0] = 0;
+        for (int i = 0; i < n; i++) {
+            double acceleration = Math.max(accelerationFloor,
+                    pathAcceleration(startAngle, angleDelta, startExtension, extensionDelta, i * ds, nodeVelocity[i], true));
+            nodeVelocity[i + 1] = Math.min(nodeVelocity[i + 1],
+                    Math.sqrt(nodeVelocity[i] * nodeVelocity[i] + 2 * acceleration * ds));
+            // constant s-acceleration over the segment, so the average velocity is the mean of the ends
+            nodeTime[i + 1] = nodeTime[i] + 2 * ds / (nodeVelocity[i] + nodeVelocity[i + 1]);
+        }
+
+        double totalTime = nodeTime[n];
+        int samples = (int) Math.ceil(totalTime / samplePeriod) + 1;
+        double[] pivotPosition = new double[samples];
+        double[] pivotVelocity = new double[samples];
+        double[] pivotAcceleration = new double[samples];
+        double[] extensionPosition = new double[samples];
+        double[] extensionVelocity = new double[samples];
+        double[] extensionAcceleration = new double[samples];
+        int segment = 0;
+        for (int k = 0; k < samples; k++) {
+            double t = Math.min(k * samplePeriod, totalTime);
+            while (segment < n - 1 && nodeTime[segment + 1] <= t) segment++;
+            double v0 = nodeVelocity[segment];
+            double v1 = nodeVelocity[segment + 1];
+            double sDotDot = (v1 * v1 - v0 * v0) / (2 * ds);
+            double tau = Math.min(t - nodeTime[segment], nodeTime[segment + 1] - nodeTime[segment]);
+            double s = Math.min(segment * ds + v0 * tau + 0.5 * sDotDot * tau * tau, 1);
+            double sDot = v0 + sDotDot * tau;
+            pivotPosition[k] = startAngle + angleDelta * s;
+            pivotVelocity[k] = angleDelta * sDot;
+            pivotAcceleration[k] = angleDelta * sDotDot;
+            extensionPosition[k] = startExtension + extensionDelta * s;
+            extensionVelocity[k] = extensionDelta * sDot;
+            extensionAcceleration[k] = extensionDelta * sDotDot;
+        }
+        // land exactly on the target
+        pivotPosition[samples - 1] = endAngle;
+        extensionPosition[samples - 1] = endExtension;
+        pivotVelocity[samples - 1] = 0;
+        extensionVelocity[samples - 1] = 0;
+        return new TelescopingArmTrajectory(samplePeriod, totalTime, pivotPosition, pivotVelocity, pivotAcceleration,
+                extensionPosition, extensionVelocity, extensionAcceleration);
+    }
+
+    /**
+     * Builds the pivot and extension setpoint dealers for a pair of ezMotions
+     * that share one plan. The plan is made (once, for both axes) when the
+     * first of the two ezMotions initializes, from the current state given by
+     * the suppliers; the other ezMotion must initialize in the same tick, eg.
+     * by scheduling both in a parallel group.
+     *
+     * @return (pivot setpoint dealer dealer, extension setpoint dealer dealer)
+     */
+    public Pair<Supplier<SetpointSupplier<Pair<Double, Double>>>, Supplier<SetpointSupplier<Pair<Double, Double>>>> ezMotionSetpoints(
+            DoubleSupplier currentAngle, DoubleSupplier currentExtension, double endAngle, double endExtension) {
+        var shared = new Object() {
+            TelescopingArmTrajectory trajectory;
+            boolean pivotTaken = true;
+            boolean extensionTaken = true;
+
+            TelescopingArmTrajectory take(boolean pivot) {
+                // replan whenever the axis asking has already used the current plan, ie. on a new run
+                if (pivot ? pivotTaken : extensionTaken) {
+                    trajectory = plan(currentAngle.getAsDouble(), currentExtension.getAsDouble(), endAngle, endExtension);
+                    pivotTaken = false;
+                    extensionTaken = false;
+                }
+                if (pivot) pivotTaken = true;
+                else extensionTaken = true;
+                return trajectory;
+            }
+        };
+        return new Pair<>(() -> shared.take(true).pivotSetpoints(), () -> shared.take(false).extensionSetpoints());
+    }
+}
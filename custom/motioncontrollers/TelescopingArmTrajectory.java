@@ -0,0 +1,103 @@
+package org.usfirst.frc4904.standard.custom.motioncontrollers;
+
+import org.usfirst.frc4904.standard.custom.motioncontrollers.ezMotion.SetpointSupplier;
+import org.usfirst.frc4904.standard.custom.motioncontrollers.ezMotion.SetpointSupplier.EndSignal;
+
+import edu.wpi.first.math.Pair;
+
+/**
+ * A coordinated pivot + extension trajectory for a telescoping arm, sampled at
+ * a fixed period. Produced by TelescopingArmProfilePlanner.
+ *
+ * Positions are in radians (pivot, from horizontal) and meters (extension);
+ * velocities and accelerations are per second and per second squared.
+ */
+public class TelescopingArmTrajectory {
+    public final double samplePeriod;
+    public final double totalTime;
+    private final double[] pivotPosition;
+    private final double[] pivotVelocity;
+    private final double[] pivotAcceleration;
+    private final double[] extensionPosition;
+    private final double[] extensionVelocity;
+    private final double[] extensionAcceleration;
+
+    TelescopingArmTrajectory(double samplePeriod, double totalTime, double[] pivotPosition, double[] pivotVelocity,
+            double[] pivotAcceleration, double[] extensionPosition, double[] extensionVelocity,
+            double[] extensionAcceleration) {
+        this.samplePeriod = samplePeriod;
+        this.totalTime = totalTime;
+        this.pivotPosition = pivotPosition;
+        this.pivotVelocity = pivotVelocity;
+        this.pivotAcceleration = pivotAcceleration;
+        this.extensionPosition = extensionPosition;
+        this.extensionVelocity = extensionVelocity;
+        this.extensionAcceleration = extensionAcceleration;
+    }
+
+    /**
+     * @return the number of samples, including the first (t = 0) and last (t =
+     *         totalTime) ones.
+     */
+    public int length() {
+        return pivotPosition.length;
+    }
+
+    /**
+     * @return the time of the sample at index, in seconds from the start.
+     */
+    public double getTime(int index) {
+        return Math.min(index * samplePeriod, totalTime);
+    }
+
+    public double getPivotPosition(int index) { return pivotPosition[index]; }
+    public double getPivotVelocity(int index) { return pivotVelocity[index]; }
+    public double getPivotAcceleration(int index) { return pivotAcceleration[index]; }
+    public double getExtensionPosition(int index) { return extensionPosition[index]; }
+    public double getExtensionVelocity(int index) { return extensionVelocity[index]; }
+    public double getExtensionAcceleration(int index) { return extensionAcceleration[index]; }
+
+    /**
+     * Linearly interpolates one of the sample arrays at time t, clamped to the
+     * ends of the trajectory.
+     */
+    private double interpolate(double[] samples, double t) {
+        if (!(t > 0)) return samples[0];
+        int last = samples.length - 1;
+        if (t >= totalTime) return samples[last];
+        double index = t / samplePeriod;
+        int i = Math.min((int) index, last - 1);
+        double next = Math.min((i + 1) * samplePeriod, totalTime);
+        double fraction = (t - i * samplePeriod) / (next - i * samplePeriod);
+        return samples[i] + (samples[i + 1] - samples[i]) * fraction;
+    }
+
+    public double getPivotPosition(double t) { return interpolate(pivotPosition, t); }
+    public double getPivotVelocity(double t) { return interpolate(pivotVelocity, t); }
+    public double getExtensionPosition(double t) { return interpolate(extensionPosition, t); }
+    public double getExtensionVelocity(double t) { return interpolate(extensionVelocity, t); }
+
+    /**
+     * @return a setpoint supplier for an ezMotion controlling the pivot, giving
+     *         (position, velocity) setpoints and signalling the end of the
+     *         trajectory once totalTime has elapsed.
+     */
+    public SetpointSupplier<Pair<Double, Double>> pivotSetpoints() {
+        return (double t) -> {
+            if (t > totalTime) throw new EndSignal();
+            return new Pair<>(getPivotPosition(t), getPivotVelocity(t));
+        };
+    }
+
+    /**
+     * @return a setpoint supplier for an ezMotion controlling the extension,
+     *         giving (position, velocity) setpoints and signalling the end of
+     *         the trajectory once totalTime has elapsed.
+     */
+    public SetpointSupplier<Pair<Double, Double>> extensionSetpoints() {
+        return (double t) -> {
+            if (t > totalTime) throw new EndSignal();
+            return new Pair<>(getExtensionPosition(t), getExtensionVelocity(t));
+        };
+    }
+}
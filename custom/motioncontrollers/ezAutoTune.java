@@ -0,0 +1,342 @@
+package org.usfirst.frc4904.standard.custom.motioncontrollers;
+
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+
+import org.usfirst.frc4904.standard.custom.motioncontrollers.ezGains.GravityType;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.Subsystem;
+
+/**
+ * Auto-tunes the gains of an ezControl on a live (or simulated) mechanism, so
+ * that tuning does not take a redeploy per guess.
+ *
+ * Takes the same feedback / output plumbing as ezMotion, with the output in
+ * volts. The command runs, in order:
+ * - quasistatic ramps forward and backward and voltage steps forward and
+ *   backward, recording (voltage, position, velocity) samples into
+ *   preallocated primitive buffers, then fits kS, kV, kA and kG to them with
+ *   least squares;
+ * - a relay (bang-bang) test around the middle of the allowed range, holding
+ *   gravity with the fitted kG, to measure the ultimate gain and period and
+ *   derive kP, kI and kD (Ziegler-Nichols "no overshoot" rule).
+ * The fitted constants are written into the given ezGains, applied to its
+ * controls and saved, so ezGains.load() picks them up on the next startup.
+ *
+ * Every phase reverses or ends when the position leaves [minPosition,
+ * maxPosition]. Only Timer and the given suppliers/consumers are used, so the
+ * command runs unchanged against a WPILib physics sim (eg. a DCMotorSim
+ * stepped in simulationPeriodic). The fitting functions are static for use on
+ * logged data.
+ */
+public class ezAutoTune extends Command {
+    public static final double DEFAULT_RAMP_VOLTS_PER_SECOND = 1.0;
+    public static final double DEFAULT_STEP_VOLTS = 6.0;
+    public static final double DEFAULT_RELAY_VOLTS = 2.0;
+    public static final double PHASE_TIMEOUT_SECONDS = 5.0;
+    public static final double RELAY_TIMEOUT_SECONDS = 10.0;
+    public static final int RELAY_CYCLES = 4;   // measured cycles, after the settling one
+    public static final int BUFFER_SIZE = 4 * (int) (PHASE_TIMEOUT_SECONDS / 0.02) + 16;
+    // samples slower than this fraction of the fastest one are left out of the fit, as sign(v) is unreliable there
+    private static final double MIN_FIT_VELOCITY_FRACTION = 0.05;
+
+    private enum Phase { QUASISTATIC_FORWARD, QUASISTATIC_REVERSE, DYNAMIC_FORWARD, DYNAMIC_REVERSE, RELAY, DONE }
+
+    public final ezGains gains;
+    public final DoubleSupplier position;
+    public final DoubleSupplier velocity;
+    public final DoubleConsumer voltageOutput;
+    public final double minPosition;
+    public final double maxPosition;
+    public final double rampVoltsPerSecond;
+    public final double stepVolts;
+    public final double relayVolts;
+
+    private final double[] sampleVoltage = new double[BUFFER_SIZE];
+    private final double[] samplePosition = new double[BUFFER_SIZE];
+    private final double[] sampleVelocity = new double[BUFFER_SIZE];
+    private final double[] sampleTime = new double[BUFFER_SIZE];
+    private final int[] samplePhase = new int[BUFFER_SIZE];
+    private int sampleCount;
+
+    private Phase phase;
+    private double phaseStart;
+    private boolean feedForwardFitted;
+    private boolean relayAbove;
+    private int relayCrossings;
+    private int relayMeasuredCycles;
+    private double relayLastCrossing;
+    private double relayPeriodSum;
+    private double relayAmplitudeSum;
+    private double relayMin;
+    private double relayMax;
+
+    /**
+     * @param gains              Gains to fill in. Its gravity type picks the
+     *                           gravity model (NONE, ELEVATOR or ARM).
+     * @param position           Measured position (radians from horizontal for
+     *                           ARM gravity).
+     * @param velocity           Measured velocity, in position units per second.
+     * @param voltageOutput      Sets the mechanism voltage.
+     * @param minPosition        Lowest position the excitation may reach.
+     * @param maxPosition        Highest position the excitation may reach.
+     * @param rampVoltsPerSecond Ramp rate of the quasistatic phases.
+     * @param stepVolts          Voltage of the dynamic (step) phases.
+     * @param relayVolts         Amplitude of the relay around the gravity
+     *                           feedforward.
+     * @param requirements       Subsystems driven by voltageOutput.
+     */
+    public ezAutoTune(ezGains gains, DoubleSupplier position, DoubleSupplier velocity, DoubleConsumer voltageOutput,
+            double minPosition, double maxPosition, double rampVoltsPerSecond, double stepVolts, double relayVolts,
+            Subsystem... requirements) {
+        addRequirements(requirements);
+        setName("ezAutoTune[" + gains.name + "]");
+        this.gains = gains;
+        this.position = position;
+        this.velocity = velocity;
+        this.voltageOutput = voltageOutput;
+        this.minPosition = minPosition;
+        this.maxPosition = maxPosition;
+        this.rampVoltsPerSecond = rampVoltsPerSecond;
+        this.stepVolts = stepVolts;
+        this.relayVolts = relayVolts;
+    }
+
+    public ezAutoTune(ezGains gains, DoubleSupplier position, DoubleSupplier velocity, DoubleConsumer voltageOutput,
+            double minPosition, double maxPosition, Subsystem... requirements) {
+        this(gains, position, velocity, voltageOutput, minPosition, maxPosition, DEFAULT_RAMP_VOLTS_PER_SECOND,
+                DEFAULT_STEP_VOLTS, DEFAULT_RELAY_VOLTS, requirements);
+    }
+
+    private void startPhase(Phase next, double now) {
+        phase = next;
+        phaseStart = now;
+    }
+
+    @Override
+    public void initialize() {
+        sampleCount = 0;
+        feedForwardFitted = false;
+        relayCrossings = 0;
+        relayMeasuredCycles = 0;
+        relayPeriodSum = 0;
+        relayAmplitudeSum = 0;
+        startPhase(Phase.QUASISTATIC_FORWARD, Timer.getFPGATimestamp());
+    }
+
+    @Override
+    public void execute() {
+        double now = Timer.getFPGATimestamp();
+        double elapsed = now - phaseStart;
+        double x = position.getAsDouble();
+        double v = velocity.getAsDouble();
+        double voltage = 0;
+        switch (phase) {
+            case QUASISTATIC_FORWARD:
+                if (x >= maxPosition || elapsed > PHASE_TIMEOUT_SECONDS) {
+                    startPhase(Phase.QUASISTATIC_REVERSE, now);
+                    break;
+                }
+                voltage = rampVoltsPerSecond * elapsed;
+                break;
+            case QUASISTATIC_REVERSE:
+                if (x <= minPosition || elapsed > PHASE_TIMEOUT_SECONDS) {
+                    startPhase(Phase.DYNAMIC_FORWARD, now);
+                    break;
+                }
+                voltage = -rampVoltsPerSecond * elapsed;
+                break;
+            case DYNAMIC_FORWARD:
+                if (x >= maxPosition || elapsed > PHASE_TIMEOUT_SECONDS) {
+                    startPhase(Phase.DYNAMIC_REVERSE, now);
+                    break;
+                }
+                voltage = stepVolts;
+                break;
+            case DYNAMIC_REVERSE:
+                if (x <= minPosition || elapsed > PHASE_TIMEOUT_SECONDS) {
+                    fitFeedForward();
+                    startRelay(x, now);
+                    break;
+                }
+                voltage = -stepVolts;
+                break;
+            case RELAY:
+                voltage = relay(x, now, elapsed);
+                break;
+            case DONE:
+                break;
+        }
+        if (phase.ordinal() < Phase.RELAY.ordinal() && sampleCount < BUFFER_SIZE) {
+            sampleTime[sampleCount] = now;
+            samplePosition[sampleCount] = x;
+            sampleVelocity[sampleCount] = v;
+            sampleVoltage[sampleCount] = voltage;
+            samplePhase[sampleCount] = phase.ordinal();
+            sampleCount++;
+        }
+        voltageOutput.accept(voltage);
+    }
+
+    private void startRelay(double x, double now) {
+        double center = (minPosition + maxPosition) / 2;
+        relayAbove = x > center;
+        relayMin = Double.POSITIVE_INFINITY;
+        relayMax = Double.NEGATIVE_INFINITY;
+        startPhase(Phase.RELAY, now);
+    }
+
+    private double relay(double x, double now, double elapsed) {
+        // the relay starts at the edge of the range after the dynamic phases, so
+        // only leaving the range once it is oscillating around the center aborts it
+        boolean outOfRange = relayCrossings > 0 && (x < minPosition || x > maxPosition);
+        if (outOfRange || elapsed > RELAY_TIMEOUT_SECONDS) {
+            System.err.println(getName() + ": relay test did not settle into an oscillation, keeping PID gains");
+            phase = Phase.DONE;
+            return 0;
+        }
+        double center = (minPosition + maxPosition) / 2;
+        relayMin = Math.min(relayMin, x);
+        relayMax = Math.max(relayMax, x);
+        boolean above = x > center;
+        if (above && !relayAbove) {
+            // upward crossing: one full oscillation since the previous one.
+            // The cycle before the second crossing is settling and not measured.
+            if (relayCrossings >= 2) {
+                relayPeriodSum += now - relayLastCrossing;
+                relayAmplitudeSum += (relayMax - relayMin) / 2;
+                relayMeasuredCycles++;
+            }
+            relayCrossings++;
+            relayLastCrossing = now;
+            relayMin = Double.POSITIVE_INFINITY;
+            relayMax = Double.NEGATIVE_INFINITY;
+            if (relayMeasuredCycles >= RELAY_CYCLES) {
+                double[] pid = relayPIDGains(relayVolts, relayAmplitudeSum / relayMeasuredCycles,
+                        relayPeriodSum / relayMeasuredCycles);
+                gains.kP = pid[0];
+                gains.kI = pid[1];
+                gains.kD = pid[2];
+                phase = Phase.DONE;
+                return 0;
+            }
+        }
+        relayAbove = above;
+        double hold = feedForwardFitted ? gains.kG * gains.gravityType.factor(x) : 0;
+        return hold + (above ? -relayVolts : relayVolts);
+    }
+
+    private void fitFeedForward() {
+        double[] ff = fitFeedForward(sampleTime, sampleVoltage, samplePosition, sampleVelocity, samplePhase,
+                sampleCount, gains.gravityType);
+        if (ff == null) {
+            System.err.println(getName() + ": not enough motion to fit a feedforward, keeping feedforward gains");
+            return;
+        }
+        gains.kS = ff[0];
+        gains.kV = ff[1];
+        gains.kA = ff[2];
+        gains.kG = ff[3];
+        feedForwardFitted = true;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return phase == Phase.DONE;
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        voltageOutput.accept(0);
+        if (interrupted) return;
+        gains.apply();
+        gains.save();
+        System.out.println(getName() + " tuned " + gains);
+    }
+
+    /**
+     * Least-squares fit of voltage = kS * sign(v) + kV * v + kA * a + kG *
+     * gravity(x). Acceleration is the central difference of velocity between
+     * neighboring samples of the same phase; samples at phase boundaries or
+     * with near-zero velocity are left out.
+     *
+     * @return {kS, kV, kA, kG}, or null if the samples do not determine the
+     *         gains (eg. the mechanism never moved)
+     */
+    public static double[] fitFeedForward(double[] time, double[] voltage, double[] position, double[] velocity,
+            int[] phase, int count, GravityType gravityType) {
+        int unknowns = gravityType == GravityType.NONE ? 3 : 4;
+        double maxSpeed = 0;
+        for (int i = 0; i < count; i++) maxSpeed = Math.max(maxSpeed, Math.abs(velocity[i]));
+        double minSpeed = maxSpeed * MIN_FIT_VELOCITY_FRACTION;
+        double[][] normal = new double[unknowns][unknowns];
+        double[] rhs = new double[unknowns];
+        double[] row = new double[unknowns];
+        int used = 0;
+        for (int i = 1; i < count - 1; i++) {
+            if (phase[i - 1] != phase[i] || phase[i + 1] != phase[i]) continue;
+            if (Math.abs(velocity[i]) < minSpeed) continue;
+            double dt = time[i + 1] - time[i - 1];
+            if (!(dt > 0)) continue;
+            row[0] = Math.signum(velocity[i]);
+            row[1] = velocity[i];
+            row[2] = (velocity[i + 1] - velocity[i - 1]) / dt;
+            if (unknowns == 4) row[3] = gravityType.factor(position[i]);
+            for (int r = 0; r < unknowns; r++) {
+                rhs[r] += row[r] * voltage[i];
+                for (int c = 0; c < unknowns; c++) normal[r][c] += row[r] * row[c];
+            }
+            used++;
+        }
+        if (used < 2 * unknowns) return null;
+        double[] solution = solve(normal, rhs);
+        if (solution == null) return null;
+        return new double[] { solution[0], solution[1], solution[2], unknowns == 4 ? solution[3] : 0 };
+    }
+
+    /**
+     * Solves a * x = b in place with Gaussian elimination and partial pivoting.
+     *
+     * @return x, or null if a is (numerically) singular
+     */
+    public static double[] solve(double[][] a, double[] b) {
+        int n = b.length;
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < n; r++) {
+                if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) pivot = r;
+            }
+            if (Math.abs(a[pivot][col]) < 1e-12) return null;
+            double[] swapRow = a[col]; a[col] = a[pivot]; a[pivot] = swapRow;
+            double swap = b[col]; b[col] = b[pivot]; b[pivot] = swap;
+            for (int r = col + 1; r < n; r++) {
+                double factor = a[r][col] / a[col][col];
+                for (int c = col; c < n; c++) a[r][c] -= factor * a[col][c];
+                b[r] -= factor * b[col];
+            }
+        }
+        double[] x = new double[n];
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = b[r];
+            for (int c = r + 1; c < n; c++) sum -= a[r][c] * x[c];
+            x[r] = sum / a[r][r];
+        }
+        return x;
+    }
+
+    /**
+     * PID gains from a relay test, with the Ziegler-Nichols "no overshoot"
+     * rule (kP = 0.2 Ku, kI = 0.4 Ku / Tu, kD = 0.066 Ku Tu).
+     *
+     * @param relayAmplitude       Half of the relay's output swing, in volts.
+     * @param oscillationAmplitude Half of the measured peak-to-peak oscillation.
+     * @param period               Measured oscillation period, in seconds.
+     * @return {kP, kI, kD}
+     */
+    public static double[] relayPIDGains(double relayAmplitude, double oscillationAmplitude, double period) {
+        double ultimateGain = 4 * relayAmplitude / (Math.PI * oscillationAmplitude);
+        return new double[] { 0.2 * ultimateGain, 0.4 * ultimateGain / period, 0.066 * ultimateGain * period };
+    }
+}
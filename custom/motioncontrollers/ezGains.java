@@ -0,0 +1,181 @@
+package org.usfirst.frc4904.standard.custom.motioncontrollers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * Mutable PID + feedforward gains for an ezControl, which can be persisted to
+ * and loaded from a file so that tuned constants (eg. from ezAutoTune) survive
+ * redeploys. Gains are stored in TUNING_DIRECTORY under the operating
+ * directory (/home/lvuser on the robot, the working directory in simulation),
+ * which deploys do not overwrite.
+ *
+ * Controls built with toControl() read the feedforward gains live and get
+ * their PID gains updated by apply(), so re-tuning takes effect immediately.
+ */
+public class ezGains {
+    public static final String TUNING_DIRECTORY = "tuning";
+
+    /**
+     * How gravity enters the feedforward: not at all (flywheels, drivetrains),
+     * as a constant (elevators), or with the cosine of the position in radians
+     * from horizontal (arms).
+     */
+    public enum GravityType {
+        NONE, ELEVATOR, ARM;
+
+        public double factor(double position) {
+            switch (this) {
+                case ELEVATOR: return 1;
+                case ARM: return Math.cos(position);
+                default: return 0;
+            }
+        }
+    }
+
+    public final String name;
+    public final GravityType gravityType;
+    public double kP;
+    public double kI;
+    public double kD;
+    public double kS;
+    public double kV;
+    public double kA;
+    public double kG;
+    private final List<ezControl> controls = new ArrayList<>();
+
+    public ezGains(String name, GravityType gravityType, double kP, double kI, double kD, double kS, double kV,
+            double kA, double kG) {
+        this.name = name;
+        this.gravityType = gravityType;
+        this.kP = kP;
+        this.kI = kI;
+        this.kD = kD;
+        this.kS = kS;
+        this.kV = kV;
+        this.kA = kA;
+        this.kG = kG;
+    }
+
+    public ezGains(String name, GravityType gravityType) {
+        this(name, gravityType, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * @return the file these gains are saved to
+     */
+    public Path getPath() {
+        return Filesystem.getOperatingDirectory().toPath().resolve(TUNING_DIRECTORY).resolve(name + ".properties");
+    }
+
+    /**
+     * Feedforward from the current gains: kS * sign(v) + kV * v + kG * gravity.
+     * kA is not used because ezFeedForward has no acceleration setpoint.
+     */
+    public double calculateFeedForward(double setpoint, double setpoint_dt) {
+        return kS * Math.signum(setpoint_dt) + kV * setpoint_dt + kG * gravityType.factor(setpoint);
+    }
+
+    /**
+     * @return an ezControl using these gains. Its feedforward follows later
+     *         changes to the gains; its PID gains follow apply().
+     */
+    public ezControl toControl() {
+        var control = new ezControl(kP, kI, kD, this::calculateFeedForward);
+        controls.add(control);
+        return control;
+    }
+
+    /**
+     * Pushes the current PID gains to every control built with toControl().
+     */
+    public void apply() {
+        for (var control : controls) control.getControl().pid.setPID(kP, kI, kD);
+    }
+
+    /**
+     * Saves the gains to getPath().
+     *
+     * @return whether the gains were saved
+     */
+    public boolean save() {
+        var properties = new Properties();
+        properties.setProperty("gravityType", gravityType.name());
+        properties.setProperty("kP", Double.toString(kP));
+        properties.setProperty("kI", Double.toString(kI));
+        properties.setProperty("kD", Double.toString(kD));
+        properties.setProperty("kS", Double.toString(kS));
+        properties.setProperty("kV", Double.toString(kV));
+        properties.setProperty("kA", Double.toString(kA));
+        properties.setProperty("kG", Double.toString(kG));
+        Path path = getPath();
+        try {
+            Files.createDirectories(path.getParent());
+            try (OutputStream out = Files.newOutputStream(path)) {
+                properties.store(out, "ezGains " + name);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not save gains " + name + " to " + path);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads saved gains into this object, keeping the current value of any gain
+     * that was not saved. Call at startup (eg. in the subsystem constructor)
+     * with the hard-coded gains as the current values.
+     *
+     * @return whether a saved file was found and read
+     */
+    public boolean load() {
+        Path path = getPath();
+        if (!Files.isRegularFile(path)) return false;
+        var properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.err.println("Could not load gains " + name + " from " + path);
+            e.printStackTrace();
+            return false;
+        }
+        String savedGravityType = properties.getProperty("gravityType");
+        if (savedGravityType != null && !savedGravityType.equals(gravityType.name())) {
+            System.err.println("Ignoring saved gains " + name + ": tuned for gravity type " + savedGravityType + ", not " + gravityType);
+            return false;
+        }
+        kP = read(properties, "kP", kP);
+        kI = read(properties, "kI", kI);
+        kD = read(properties, "kD", kD);
+        kS = read(properties, "kS", kS);
+        kV = read(properties, "kV", kV);
+        kA = read(properties, "kA", kA);
+        kG = read(properties, "kG", kG);
+        apply();
+        return true;
+    }
+
+    private static double read(Properties properties, String key, double fallback) {
+        String value = properties.getProperty(key);
+        if (value == null) return fallback;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " [kP=" + kP + ", kI=" + kI + ", kD=" + kD + ", kS=" + kS + ", kV=" + kV + ", kA=" + kA + ", kG=" + kG + "]";
+    }
+}
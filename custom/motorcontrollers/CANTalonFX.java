@@ -1,11 +1,27 @@
 package org.usfirst.frc4904.standard.custom.motorcontrollers;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.Utils;
+import com.ctre.phoenix6.configs.MotionMagicConfigs;
+import com.ctre.phoenix6.configs.Slot0Configs;
+import com.ctre.phoenix6.controls.Follower;
+import com.ctre.phoenix6.controls.MotionMagicVoltage;
 import com.ctre.phoenix6.signals.ForwardLimitValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import com.ctre.phoenix6.signals.ReverseLimitValue;
 
 import com.ctre.phoenix6.hardware.TalonFX;
 
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.AngularVelocity;
+
 // TODO: directly extend TalonFX once they remove the deprecated setInverted() function
 // the problem right now is that it returns a StatusCode which is not compatible with MotorController
 // so we have to do this awful solution thanks
@@ -14,7 +30,40 @@ public class CANTalonFX implements SmartMotorController {
 	protected static final NeutralModeValue DEFAULT_NEUTRAL_MODE 	= NeutralModeValue.Coast;
 	protected static final double	   DEFAULT_NEUTRAL_DEADBAND = 0.001;	// 0.1%, the minimum possible value 
 
+	protected static final double	   MAX_LATENCY_COMPENSATION = 0.3;	// seconds; older samples are not extrapolated further, eg. if the motor dropped off the bus
+
 	public TalonFX motor;
+	protected NeutralModeValue neutralMode = null;	// last neutral mode sent, null until the first call so it is always configured once
+	protected int resets = 0;	// resets seen, see checkReset()
+
+	// signals read through this class, refreshed for every CANTalonFX at once by refreshSignals() or the signal thread
+	protected final StatusSignal<Angle> position;
+	protected final StatusSignal<AngularVelocity> velocity;
+	protected final StatusSignal<Double> dutyCycle;
+	protected final StatusSignal<ForwardLimitValue> forwardLimit;
+	protected final StatusSignal<ReverseLimitValue> reverseLimit;
+	// values copied from the signals after each refresh, guarded by signalLock so a reader sees one refresh of every motor
+	private double positionRotations;
+	private double velocityRPS;
+	private double sampleTime;
+	private double dutyCycleValue;
+	private boolean forwardLimitClosed;
+	private boolean reverseLimitClosed;
+	private double closedLoopErrorValue = Double.POSITIVE_INFINITY;	// not arrived until the first refresh after configuring
+	private double closedLoopReferenceValue;
+
+	private static final Object signalLock = new Object();
+	private static final List<CANTalonFX> instances = new ArrayList<>();
+	private static final Map<String, List<CANTalonFX>> instancesByBus = new LinkedHashMap<>();	// refreshAll/waitForAll need signals from a single CAN bus
+	private static volatile BaseStatusSignal[][] signalsByBus = new BaseStatusSignal[0][];
+	private static CANTalonFX[][] instancesByBusArray = new CANTalonFX[0][];
+	private static volatile boolean signalThreadRunning = false;
+
+	// on-controller motion profile; the request is reused so setting a target does not allocate
+	protected final MotionMagicVoltage motionMagicRequest = new MotionMagicVoltage(0);
+	protected StatusSignal<Double> closedLoopError = null;	// null until configured; then refreshed with the other signals
+	protected StatusSignal<Double> closedLoopReference = null;
+	protected double motionMagicTarget = 0;
 
 	/**
 	 * Represents a Falcon motor in code. You probably want NeutralMode.Brake,
@@ -31,6 +80,25 @@ public class CANTalonFX implements SmartMotorController {
 	 */
 	public CANTalonFX(int deviceNumber) {
 		motor = new TalonFX(deviceNumber);
+		position = motor.getPosition();
+		velocity = motor.getVelocity();
+		dutyCycle = motor.getDutyCycle();
+		forwardLimit = motor.getForwardLimit();
+		reverseLimit = motor.getReverseLimit();
+		registerSignals(this);
+	}
+
+	/**
+	 * Represents a Falcon motor in code, configured later (in parallel with
+	 * other motors, and only if changed) by manager.configureAll().
+	 *
+	 * @param deviceNumber Usually the CAN ID of the device, declared in RobotMap
+	 * @param manager      The manager to register config with
+	 * @param config       The desired config, eg. inversion and brake mode
+	 */
+	public CANTalonFX(int deviceNumber, MotorConfigurationManager manager, MotorConfigurationManager.DeviceConfig config) {
+		this(deviceNumber);
+		manager.register("TalonFX " + deviceNumber, this, config);
 	}
 
 	/**
@@ -46,9 +114,12 @@ public class CANTalonFX implements SmartMotorController {
 	 *
 	 * This does not brake the motor. Use .neutralOutput() instead, after
 	 * setBrakeOnNeutral.
+	 *
+	 * Only sends a config when the neutral mode changes, without waiting for
+	 * it to be acknowledged, so it is safe to call from commands every tick.
 	 */
 	public CANTalonFX setBrakeOnNeutral() {
-		motor.setNeutralMode(NeutralModeValue.Brake);
+		applyNeutralMode(NeutralModeValue.Brake);
 		return this;
 	}
 	/**
@@ -58,20 +129,264 @@ public class CANTalonFX implements SmartMotorController {
 	 *
 	 * This does not coast the motor. Use .neutralOutput() instead, after
 	 * setCoastOnNeutral.
+	 *
+	 * Only sends a config when the neutral mode changes, without waiting for
+	 * it to be acknowledged, so it is safe to call from commands every tick.
 	 */
 	public CANTalonFX setCoastOnNeutral() {
-		motor.setNeutralMode(NeutralModeValue.Coast);
+		applyNeutralMode(NeutralModeValue.Coast);
 		return this;
 	}
 
+	private void applyNeutralMode(NeutralModeValue mode) {
+		checkReset();
+		if (mode == neutralMode) return;
+		motor.setNeutralMode(mode, 0);	// timeout of 0: send without blocking on the acknowledgement
+		neutralMode = mode;
+	}
+
+	/**
+	 * hasResetOccurred() only reports each reset once, so every check goes
+	 * through here and is counted.
+	 */
+	private void checkReset() {
+		if (!motor.hasResetOccurred()) return;
+		resets++;
+		neutralMode = null;	// a reset reverts the device to its saved configs, so our cached mode may be stale
+	}
+
+	@Override
+	public int getResetCount() {
+		checkReset();
+		return resets;
+	}
+
 	public boolean isFwdLimitSwitchPressed() throws IllegalAccessException {
 		// OPTIM: this should probably support normally closed limit switches too... right now only supports normally open
-		return motor.getForwardLimit().getValue() == ForwardLimitValue.ClosedToGround;
+		StatusSignalUsage.record(this, MotorSignal.LIMIT_SWITCHES);
+		synchronized (signalLock) {
+			return forwardLimitClosed;
+		}
 	}
 	public boolean isRevLimitSwitchPressed() throws IllegalAccessException {
 		// TODO: this boolean might be reversed
 		// OPTIM: this should probably support normally closed limit switches too... right now only supports normally open
-		return motor.getReverseLimit().getValue() == ReverseLimitValue.ClosedToGround;
+		StatusSignalUsage.record(this, MotorSignal.LIMIT_SWITCHES);
+		synchronized (signalLock) {
+			return reverseLimitClosed;
+		}
+	}
+
+	/// SIGNALS
+	private static void registerSignals(CANTalonFX talon) {
+		synchronized (signalLock) {
+			if (signalThreadRunning) System.err.println("CANTalonFX " + talon.motor.getDeviceID() + " constructed after startSignalThread(); its signals will not be refreshed");
+			instances.add(talon);
+			instancesByBus.computeIfAbsent(talon.motor.getNetwork(), bus -> new ArrayList<>()).add(talon);
+			collectSignals();
+		}
+	}
+
+	// must hold signalLock
+	private static void collectSignals() {
+		var collected = new BaseStatusSignal[instancesByBus.size()][];
+		instancesByBusArray = new CANTalonFX[instancesByBus.size()][];
+		int i = 0;
+		for (List<CANTalonFX> talons : instancesByBus.values()) {
+			var signals = new ArrayList<BaseStatusSignal>();
+			for (CANTalonFX t : talons) {
+				signals.add(t.position);
+				signals.add(t.velocity);
+				signals.add(t.dutyCycle);
+				signals.add(t.forwardLimit);
+				signals.add(t.reverseLimit);
+				if (t.closedLoopError != null) {
+					signals.add(t.closedLoopError);
+					signals.add(t.closedLoopReference);
+				}
+			}
+			collected[i] = signals.toArray(new BaseStatusSignal[0]);
+			instancesByBusArray[i] = talons.toArray(new CANTalonFX[0]);
+			i++;
+		}
+		signalsByBus = collected;
+	}
+
+	// must hold signalLock
+	private void copySignals() {
+		positionRotations = position.getValueAsDouble();
+		velocityRPS = velocity.getValueAsDouble();
+		sampleTime = position.getTimestamp().getTime();
+		dutyCycleValue = dutyCycle.getValueAsDouble();
+		forwardLimitClosed = forwardLimit.getValue() == ForwardLimitValue.ClosedToGround;
+		reverseLimitClosed = reverseLimit.getValue() == ReverseLimitValue.ClosedToGround;
+		if (closedLoopError != null) {
+			closedLoopErrorValue = closedLoopError.getValueAsDouble();
+			closedLoopReferenceValue = closedLoopReference.getValueAsDouble();
+		}
+	}
+
+	/**
+	 * Refreshes the signals of every CANTalonFX with one batched refreshAll()
+	 * per CAN bus. Called by CommandRobotBase at the start of every tick; does
+	 * nothing while the signal thread is running.
+	 */
+	public static void refreshSignals() {
+		if (signalThreadRunning) return;
+		for (BaseStatusSignal[] signals : signalsByBus) BaseStatusSignal.refreshAll(signals);
+		synchronized (signalLock) {
+			for (CANTalonFX talon : instances) talon.copySignals();
+		}
+	}
+
+	/**
+	 * Starts a background thread per CAN bus that waits for new signals from
+	 * every CANTalonFX on that bus (at the rate of the slowest one), so
+	 * values are fresh as soon as the devices send them instead of once per
+	 * tick. Construct every CANTalonFX first. Signals that were slowed down
+	 * with setStatusSignalRates() make the thread fall back to timeoutSeconds.
+	 *
+	 * @param timeoutSeconds Maximum time to wait for new signals before copying
+	 *                       whatever is there, eg. 0.1
+	 */
+	public static void startSignalThread(double timeoutSeconds) {
+		synchronized (signalLock) {
+			if (signalThreadRunning) return;
+			signalThreadRunning = true;
+			for (int i = 0; i < signalsByBus.length; i++) {
+				int bus = i;
+				CANTalonFX[] talons = instancesByBusArray[i];
+				var thread = new Thread(() -> {
+					while (!Thread.currentThread().isInterrupted()) {
+						// read every time, as configDynamicMotionProfile() adds signals
+						BaseStatusSignal.waitForAll(timeoutSeconds, signalsByBus[bus]);
+						synchronized (signalLock) {
+							for (CANTalonFX talon : talons) talon.copySignals();
+						}
+					}
+				}, "CANTalonFX signals " + talons[0].motor.getNetwork());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * @return the position in rotations, extrapolated with the velocity to the
+	 *         current time to compensate for CAN latency.
+	 */
+	public double getPositionRotations() {
+		StatusSignalUsage.record(this, MotorSignal.POSITION);
+		StatusSignalUsage.record(this, MotorSignal.VELOCITY);
+		synchronized (signalLock) {
+			return compensatedPosition(Utils.getCurrentTimeSeconds());
+		}
+	}
+
+	// must hold signalLock
+	private double compensatedPosition(double now) {
+		return positionRotations + velocityRPS * Math.max(0, Math.min(MAX_LATENCY_COMPENSATION, now - sampleTime));
+	}
+
+	/**
+	 * @return the velocity in rotations per second, as of the last refresh
+	 */
+	public double getVelocityRPS() {
+		StatusSignalUsage.record(this, MotorSignal.VELOCITY);
+		synchronized (signalLock) {
+			return velocityRPS;
+		}
+	}
+
+	/**
+	 * Reads the latency compensated positions and velocities of several motors
+	 * from the same refresh, extrapolated to the same instant, eg. for chassis
+	 * odometry.
+	 *
+	 * @param talons             The motors to read
+	 * @param positionsRotations Filled with positions, in rotations
+	 * @param velocitiesRPS      Filled with velocities, in rotations per
+	 *                           second; may be null
+	 */
+	public static void getPositionsAndVelocities(CANTalonFX[] talons, double[] positionsRotations, double[] velocitiesRPS) {
+		for (CANTalonFX talon : talons) {
+			StatusSignalUsage.record(talon, MotorSignal.POSITION);
+			StatusSignalUsage.record(talon, MotorSignal.VELOCITY);
+		}
+		synchronized (signalLock) {
+			double now = Utils.getCurrentTimeSeconds();
+			for (int i = 0; i < talons.length; i++) {
+				positionsRotations[i] = talons[i].compensatedPosition(now);
+				if (velocitiesRPS != null) velocitiesRPS[i] = talons[i].velocityRPS;
+			}
+		}
+	}
+
+	/**
+	 * Requests the consumed signals at their rate, then lets Phoenix slow
+	 * every signal that was not given a rate down to MotorSignal.UNUSED_HZ
+	 * with optimizeBusUtilization(), as StatusSignalUsage estimates.
+	 */
+	@Override
+	public void setStatusSignalRates(EnumSet<MotorSignal> consumed) {
+		for (MotorSignal signal : consumed) {
+			BaseStatusSignal.setUpdateFrequencyForAll(signal.consumedHz, getSignals(signal));
+		}
+		// keep the signals used for motion profile arrival detection
+		if (closedLoopError != null) BaseStatusSignal.setUpdateFrequencyForAll(MotorSignal.POSITION.consumedHz, closedLoopError, closedLoopReference);
+		motor.optimizeBusUtilization(MotorSignal.UNUSED_HZ, 0);	// timeout of 0: do not block the caller
+	}
+
+	protected BaseStatusSignal[] getSignals(MotorSignal signal) {
+		switch (signal) {
+			case POSITION: return new BaseStatusSignal[] { motor.getPosition() };
+			case VELOCITY: return new BaseStatusSignal[] { motor.getVelocity() };
+			case CURRENT: return new BaseStatusSignal[] { motor.getStatorCurrent(), motor.getSupplyCurrent() };
+			case APPLIED_OUTPUT: return new BaseStatusSignal[] { motor.getDutyCycle(), motor.getMotorVoltage() };
+			case TEMPERATURE: return new BaseStatusSignal[] { motor.getDeviceTemp() };
+			case LIMIT_SWITCHES: return new BaseStatusSignal[] { motor.getForwardLimit(), motor.getReverseLimit() };
+			default: return new BaseStatusSignal[0];
+		}
+	}
+
+	@Override
+	public void follow(SmartMotorController leader, boolean opposeLeader) {
+		if (!(leader instanceof CANTalonFX)) throw new IllegalArgumentException("CANTalonFX can only follow another CANTalonFX");
+		motor.setControl(new Follower(((CANTalonFX) leader).motor.getDeviceID(), opposeLeader));
+	}
+
+	/// DYNAMIC MOTION PROFILE
+	@Override
+	public void configDynamicMotionProfile(double cruiseVelocityRPS, double accelerationRPSPS, double kP, double kI, double kD, double kV) {
+		var configurator = motor.getConfigurator();
+		configurator.apply(new Slot0Configs().withKP(kP).withKI(kI).withKD(kD).withKV(kV));
+		configurator.apply(new MotionMagicConfigs().withMotionMagicCruiseVelocity(cruiseVelocityRPS).withMotionMagicAcceleration(accelerationRPSPS));
+		synchronized (signalLock) {
+			if (closedLoopError != null) return;
+			closedLoopError = motor.getClosedLoopError();
+			closedLoopReference = motor.getClosedLoopReference();
+			collectSignals();	// refreshed with the other signals from now on
+		}
+	}
+
+	@Override
+	public void setDynamicMotionProfileTargetRotations(double rotations) {
+		motionMagicTarget = rotations;
+		motor.setControl(motionMagicRequest.withPosition(rotations));
+	}
+
+	/**
+	 * Closed loop error is measured against the profile's current setpoint, so
+	 * the distance to the final target is (target - reference) + error. Both
+	 * signals are refreshed with the other signals of every CANTalonFX, by
+	 * refreshSignals() or the signal thread.
+	 */
+	@Override
+	public double getDynamicMotionProfileErrorRotations() {
+		synchronized (signalLock) {
+			if (closedLoopError == null) return Double.POSITIVE_INFINITY;	// not configured, so we never arrive
+			return motionMagicTarget - closedLoopReferenceValue + closedLoopErrorValue;
+		}
 	}
 
 	@Override
@@ -79,9 +394,15 @@ public class CANTalonFX implements SmartMotorController {
 		motor.set(speed);
 	}
 
+	/**
+	 * @return the applied duty cycle as of the last signal refresh
+	 */
 	@Override
 	public double get() {
-		return motor.get();
+		StatusSignalUsage.record(this, MotorSignal.APPLIED_OUTPUT);
+		synchronized (signalLock) {
+			return dutyCycleValue;
+		}
 	}
 
 	@Override
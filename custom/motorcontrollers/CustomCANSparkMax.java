@@ -1,5 +1,9 @@
 package org.usfirst.frc4904.standard.custom.motorcontrollers;
 
+import java.util.EnumSet;
+
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.ControlType;
 import com.revrobotics.spark.SparkMax;
 import com.revrobotics.spark.config.LimitSwitchConfig.Type;
 import com.revrobotics.spark.config.SparkBaseConfig;
@@ -13,6 +17,10 @@ public class CustomCANSparkMax extends SparkMax implements SmartMotorController
 
     // protected Double voltage_compensation_max = null;   // remember the configured saturation voltage to conform to the talon api of having separate config() and enable() methods; error if we try to enable without configuring it.
     protected boolean limitSwitch;
+    protected Boolean brakeOnNeutral = null;    // last idle mode sent, null until the first call so it is always configured once
+    protected double maxMotionTarget = Double.NaN;  // NaN until a MAXMotion target is set
+    protected boolean hadReset = false;     // last reset sticky warning seen, see checkReset()
+    protected int resets = 0;
 
     public CustomCANSparkMax(int deviceNumber, MotorType motorType, boolean inverted, boolean limitSwitch) {
         super(deviceNumber, motorType);
@@ -29,46 +37,169 @@ public class CustomCANSparkMax extends SparkMax implements SmartMotorController
         this(deviceNumber, motorType, inverted, false);
     }
 
+    /**
+     * Registers the inversion with a MotorConfigurationManager instead of
+     * resetting and persisting the config in the constructor, so that many
+     * motors can be configured in parallel (and only if changed) with
+     * manager.configureAll().
+     *
+     * @param config Other parameters to manage, eg. brake mode and current
+     *               limit; the inversion is set from inverted, on a copy
+     */
+    public CustomCANSparkMax(int deviceNumber, MotorType motorType, boolean inverted, boolean limitSwitch,
+            MotorConfigurationManager manager, MotorConfigurationManager.DeviceConfig config) {
+        super(deviceNumber, motorType);
+        this.limitSwitch = limitSwitch;
+        manager.register("SparkMax " + deviceNumber, this, config.copy().inverted(inverted));
+    }
+
     /**
      * Alias for .set() on power
      * @param power
      */
     public void setPower(double power) { set(power); }
 
+    /**
+     * Setting to enable brake mode on neutral. Only sends a config when the
+     * idle mode changes; the write is asynchronous and not persisted to flash,
+     * so it is safe to call from commands every tick.
+     */
     public SmartMotorController setBrakeOnNeutral() {
-        configure(
-            brakeConfig,
-            ResetMode.kNoResetSafeParameters,
-            PersistMode.kPersistParameters
-        );
-
+        checkReset();
+        if (brakeOnNeutral == null || !brakeOnNeutral) {
+            configureAsync(
+                brakeConfig,
+                ResetMode.kNoResetSafeParameters,
+                PersistMode.kNoPersistParameters
+            );
+            brakeOnNeutral = true;
+        }
         return this;
     }
 
+    /**
+     * Setting to enable coast mode on neutral. Only sends a config when the
+     * idle mode changes; the write is asynchronous and not persisted to flash,
+     * so it is safe to call from commands every tick.
+     */
     public SmartMotorController setCoastOnNeutral() {
-        configure(
-            coastConfig,
-            ResetMode.kNoResetSafeParameters,
-            PersistMode.kPersistParameters
-        );
-
+        checkReset();
+        if (brakeOnNeutral == null || brakeOnNeutral) {
+            configureAsync(
+                coastConfig,
+                ResetMode.kNoResetSafeParameters,
+                PersistMode.kNoPersistParameters
+            );
+            brakeOnNeutral = false;
+        }
         return this;
     }
 
+    /**
+     * Checks the reset sticky warning, which a reboot (eg. a brownout) sets,
+     * and clears it. A reset reverts the controller to its flashed config, so
+     * the cached idle mode is forgotten and sent again. The warning is read
+     * from the periodic status frame, so this costs no CAN request.
+     */
+    protected void checkReset() {
+        boolean hasReset = getStickyWarnings().hasReset;
+        if (hasReset && !hadReset) {
+            resets++;
+            brakeOnNeutral = null;
+            clearFaults();
+        }
+        hadReset = hasReset;    // only count the edge, in case clearing is not acknowledged yet
+    }
+
+    @Override
+    public int getResetCount() {
+        checkReset();
+        return resets;
+    }
+
     @Override
     public void neutralOutput() {
         stopMotor();
     }
 
+    /**
+     * Follow mode is a SparkMax config, sent asynchronously and not persisted.
+     */
+    @Override
+    public void follow(SmartMotorController leader, boolean opposeLeader) {
+        if (!(leader instanceof SparkBase)) throw new IllegalArgumentException("CustomCANSparkMax can only follow another Spark");
+        configureAsync(
+            new SparkMaxConfig().follow((SparkBase) leader, opposeLeader),
+            ResetMode.kNoResetSafeParameters,
+            PersistMode.kNoPersistParameters
+        );
+    }
+
     @Override
     public boolean isFwdLimitSwitchPressed() throws IllegalAccessException {
         if (!limitSwitch) throw new IllegalAccessException("Cannot read limit switch state when CustomCANSparkMax was constructed without limit switch type!");
+        StatusSignalUsage.record(this, MotorSignal.LIMIT_SWITCHES);
         return getForwardLimitSwitch().isPressed();
     }
 
     @Override
     public boolean isRevLimitSwitchPressed() throws IllegalAccessException {
         if (!limitSwitch) throw new IllegalAccessException("Cannot read limit switch state when CustomCANSparkMax was constructed without limit switch type!");
+        StatusSignalUsage.record(this, MotorSignal.LIMIT_SWITCHES);
         return getReverseLimitSwitch().isPressed();
     }
+
+    /**
+     * Sets the period of each status signal to its consumed rate, or to
+     * MotorSignal.UNUSED_HZ if it is not consumed. Asynchronous and not
+     * persisted.
+     */
+    @Override
+    public void setStatusSignalRates(EnumSet<MotorSignal> consumed) {
+        var config = new SparkMaxConfig();
+        config.signals
+            .primaryEncoderPositionPeriodMs(periodMs(consumed, MotorSignal.POSITION))
+            .primaryEncoderVelocityPeriodMs(periodMs(consumed, MotorSignal.VELOCITY))
+            .outputCurrentPeriodMs(periodMs(consumed, MotorSignal.CURRENT))
+            .appliedOutputPeriodMs(periodMs(consumed, MotorSignal.APPLIED_OUTPUT))
+            .motorTemperaturePeriodMs(periodMs(consumed, MotorSignal.TEMPERATURE))
+            .limitsPeriodMs(periodMs(consumed, MotorSignal.LIMIT_SWITCHES));
+        configureAsync(config, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+    }
+
+    /**
+     * Configures MAXMotion. Gains are converted from volts to duty cycle
+     * assuming a 12V battery, and velocities to RPM.
+     */
+    @Override
+    public void configDynamicMotionProfile(double cruiseVelocityRPS, double accelerationRPSPS, double kP, double kI, double kD, double kV) {
+        var config = new SparkMaxConfig();
+        config.closedLoop
+            .pid(kP / 12, kI / 12, kD / 12)
+            .velocityFF(kV / 12 / 60);
+        config.closedLoop.maxMotion
+            .maxVelocity(cruiseVelocityRPS * 60)
+            .maxAcceleration(accelerationRPSPS * 60);
+        configure(config, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+    }
+
+    @Override
+    public void setDynamicMotionProfileTargetRotations(double rotations) {
+        maxMotionTarget = rotations;
+        getClosedLoopController().setReference(rotations, ControlType.kMAXMotionPositionControl);
+    }
+
+    /**
+     * The SparkMax does not send its closed loop error, so this uses the
+     * encoder position from its periodic status frame (no extra CAN request).
+     */
+    @Override
+    public double getDynamicMotionProfileErrorRotations() {
+        StatusSignalUsage.record(this, MotorSignal.POSITION);
+        return maxMotionTarget - getEncoder().getPosition();   // NaN before a target is set, which never counts as arrived
+    }
+
+    private static int periodMs(EnumSet<MotorSignal> consumed, MotorSignal signal) {
+        return (int) Math.round(1000 / (consumed.contains(signal) ? signal.consumedHz : MotorSignal.UNUSED_HZ));
+    }
 }
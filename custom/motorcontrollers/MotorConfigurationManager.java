@@ -0,0 +1,286 @@
+package org.usfirst.frc4904.standard.custom.motorcontrollers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.ctre.phoenix6.configs.CurrentLimitsConfigs;
+import com.ctre.phoenix6.configs.MotorOutputConfigs;
+import com.ctre.phoenix6.signals.InvertedValue;
+import com.ctre.phoenix6.signals.NeutralModeValue;
+import com.revrobotics.REVLibError;
+import com.revrobotics.spark.SparkBase.PersistMode;
+import com.revrobotics.spark.SparkBase.ResetMode;
+import com.revrobotics.spark.config.SparkBaseConfig.IdleMode;
+import com.revrobotics.spark.config.SparkMaxConfig;
+
+/**
+ * Configures many motor controllers at startup without serially blocking on
+ * each one. Register the desired config of every motor (or construct them with
+ * a manager), then call configureAll() once in robotInit.
+ *
+ * For each device, the current values of the managed parameters are read back,
+ * and only the ones that differ are written (and persisted), so a redeploy
+ * with unchanged configs costs a few parameter reads instead of a reset and a
+ * flash write. Devices are configured in parallel on a small thread pool,
+ * since most of the time is spent waiting on CAN round trips.
+ *
+ * Unlike the CustomCANSparkMax constructor, parameters that are not managed
+ * (null in the DeviceConfig) are left as they are on the device rather than
+ * reset to defaults.
+ */
+public class MotorConfigurationManager {
+    public static final int DEFAULT_THREADS = 4;
+    public static final double DEFAULT_TIMEOUT_SECONDS = 10;
+    protected static final double CTRE_CONFIG_TIMEOUT_SECONDS = 0.1;  // per read/apply; the CTRE default is 0.1 too
+
+    /**
+     * Desired configuration of one device. null leaves a parameter as is.
+     */
+    public static class DeviceConfig {
+        public Boolean inverted;
+        public Boolean brakeOnNeutral;
+        public Integer currentLimitAmps;  // SparkMax smart current limit, TalonFX stator current limit
+
+        public DeviceConfig inverted(boolean inverted) {
+            this.inverted = inverted;
+            return this;
+        }
+
+        public DeviceConfig brakeOnNeutral(boolean brakeOnNeutral) {
+            this.brakeOnNeutral = brakeOnNeutral;
+            return this;
+        }
+
+        public DeviceConfig currentLimit(int amps) {
+            this.currentLimitAmps = amps;
+            return this;
+        }
+
+        /**
+         * @return a config with the same parameters, so one config can be
+         *         shared between motors and changed per motor
+         */
+        public DeviceConfig copy() {
+            var copy = new DeviceConfig();
+            copy.inverted = inverted;
+            copy.brakeOnNeutral = brakeOnNeutral;
+            copy.currentLimitAmps = currentLimitAmps;
+            return copy;
+        }
+    }
+
+    /**
+     * What configureAll() did to one device.
+     */
+    public static class DeviceReport {
+        public final String name;
+        public final List<String> changed = new ArrayList<>();
+        public double seconds;
+        public boolean success = true;
+
+        DeviceReport(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s in %.0fms%s", name, success ? "ok" : "FAILED", seconds * 1000,
+                changed.isEmpty() ? ", unchanged" : ", changed " + String.join(", ", changed));
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final SmartMotorController motor;
+        final DeviceConfig config;
+
+        Entry(String name, SmartMotorController motor, DeviceConfig config) {
+            this.name = name;
+            this.motor = motor;
+            this.config = config;
+        }
+    }
+
+    protected final int threads;
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param threads Number of devices configured at once
+     */
+    public MotorConfigurationManager(int threads) {
+        this.threads = threads;
+    }
+
+    public MotorConfigurationManager() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Registers a motor to be configured by configureAll(). Registering the same
+     * motor again replaces its config.
+     *
+     * @param name   Name used in the report
+     * @param motor  The motor controller
+     * @param config The desired config; copied, so later changes to it have
+     *               no effect
+     */
+    public synchronized void register(String name, SmartMotorController motor, DeviceConfig config) {
+        entries.removeIf(entry -> entry.motor == motor);
+        entries.add(new Entry(name, motor, config.copy()));
+    }
+
+    /**
+     * Configures every registered motor, waiting up to timeoutSeconds in total,
+     * and prints a report.
+     *
+     * @return a report for each motor, in registration order
+     */
+    public synchronized List<DeviceReport> configureAll(double timeoutSeconds) {
+        double start = System.nanoTime() / 1e9;
+        var reports = new ArrayList<DeviceReport>();
+        var futures = new ArrayList<Future<?>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, entries.size())), runnable -> {
+            var thread = new Thread(runnable, "MotorConfigurationManager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Entry entry : entries) {
+            var report = new DeviceReport(entry.name);
+            reports.add(report);
+            futures.add(executor.submit(() -> configure(entry, report)));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination((long) (timeoutSeconds * 1000), TimeUnit.MILLISECONDS)) {
+                System.err.println("MotorConfigurationManager timed out after " + timeoutSeconds + "s; some motors may not be configured");
+                for (int i = 0; i < futures.size(); i++) {
+                    if (!futures.get(i).isDone()) reports.get(i).success = false;
+                }
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        System.out.printf("MotorConfigurationManager: configured %d motors in %.0fms%n", reports.size(), (System.nanoTime() / 1e9 - start) * 1000);
+        for (var report : reports) System.out.println("  " + report);
+        return reports;
+    }
+
+    public List<DeviceReport> configureAll() {
+        return configureAll(DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    private void configure(Entry entry, DeviceReport report) {
+        long start = System.nanoTime();
+        try {
+            if (entry.motor instanceof CustomCANSparkMax) {
+                configureSparkMax((CustomCANSparkMax) entry.motor, entry.config, report);
+            } else if (entry.motor instanceof CANTalonFX) {
+                configureTalonFX((CANTalonFX) entry.motor, entry.config, report);
+            } else {
+                configureGeneric(entry.motor, entry.config, report);
+            }
+        } catch (Exception e) {
+            report.success = false;
+            System.err.println("Could not configure " + entry.name);
+            e.printStackTrace();
+        }
+        report.seconds = (System.nanoTime() - start) / 1e9;
+    }
+
+    private static void configureSparkMax(CustomCANSparkMax spark, DeviceConfig config, DeviceReport report) {
+        var changes = new SparkMaxConfig();
+        if (config.inverted != null && spark.configAccessor.getInverted() != config.inverted) {
+            changes.inverted(config.inverted);
+            report.changed.add("inverted");
+        }
+        if (config.brakeOnNeutral != null) {
+            IdleMode idleMode = config.brakeOnNeutral ? IdleMode.kBrake : IdleMode.kCoast;
+            if (spark.configAccessor.getIdleMode() != idleMode) {
+                changes.idleMode(idleMode);
+                report.changed.add("idleMode");
+            }
+            spark.brakeOnNeutral = config.brakeOnNeutral;
+        }
+        if (config.currentLimitAmps != null && spark.configAccessor.getSmartCurrentLimit() != config.currentLimitAmps) {
+            changes.smartCurrentLimit(config.currentLimitAmps);
+            report.changed.add("smartCurrentLimit");
+        }
+        if (report.changed.isEmpty()) return;
+        var error = spark.configure(changes, ResetMode.kNoResetSafeParameters, PersistMode.kPersistParameters);
+        if (error != REVLibError.kOk) {
+            report.success = false;
+            System.err.println("Could not configure " + report.name + ": " + error);
+        }
+    }
+
+    private static void configureTalonFX(CANTalonFX talon, DeviceConfig config, DeviceReport report) {
+        var configurator = talon.motor.getConfigurator();
+        if (config.inverted != null || config.brakeOnNeutral != null) {
+            var output = new MotorOutputConfigs();
+            // applying a group that was not read back would reset its unmanaged fields to defaults
+            if (!check(configurator.refresh(output, CTRE_CONFIG_TIMEOUT_SECONDS).isOK(), report, "read motor output")) return;
+            boolean changed = false;
+            if (config.inverted != null) {
+                InvertedValue inverted = config.inverted ? InvertedValue.Clockwise_Positive : InvertedValue.CounterClockwise_Positive;
+                if (output.Inverted != inverted) {
+                    output.Inverted = inverted;
+                    report.changed.add("inverted");
+                    changed = true;
+                }
+            }
+            if (config.brakeOnNeutral != null) {
+                NeutralModeValue neutralMode = config.brakeOnNeutral ? NeutralModeValue.Brake : NeutralModeValue.Coast;
+                if (output.NeutralMode != neutralMode) {
+                    output.NeutralMode = neutralMode;
+                    report.changed.add("neutralMode");
+                    changed = true;
+                }
+                talon.neutralMode = neutralMode;
+            }
+            if (changed) check(configurator.apply(output, CTRE_CONFIG_TIMEOUT_SECONDS).isOK(), report, "apply motor output");
+        }
+        if (config.currentLimitAmps != null) {
+            var limits = new CurrentLimitsConfigs();
+            if (!check(configurator.refresh(limits, CTRE_CONFIG_TIMEOUT_SECONDS).isOK(), report, "read current limits")) return;
+            if (!limits.StatorCurrentLimitEnable || limits.StatorCurrentLimit != config.currentLimitAmps) {
+                limits.StatorCurrentLimit = config.currentLimitAmps;
+                limits.StatorCurrentLimitEnable = true;
+                report.changed.add("statorCurrentLimit");
+                check(configurator.apply(limits, CTRE_CONFIG_TIMEOUT_SECONDS).isOK(), report, "apply current limits");
+            }
+        }
+    }
+
+    /**
+     * Motor controllers we cannot read back from are configured through the
+     * SmartMotorController interface, every time.
+     */
+    private static void configureGeneric(SmartMotorController motor, DeviceConfig config, DeviceReport report) {
+        if (config.inverted != null) {
+            motor.setInverted(config.inverted);
+            report.changed.add("inverted");
+        }
+        if (config.brakeOnNeutral != null) {
+            if (config.brakeOnNeutral) motor.setBrakeOnNeutral();
+            else motor.setCoastOnNeutral();
+            report.changed.add("neutralMode");
+        }
+        if (config.currentLimitAmps != null) {
+            System.err.println("Cannot set current limit of " + report.name + ": unsupported motor controller");
+            report.success = false;
+        }
+    }
+
+    private static boolean check(boolean ok, DeviceReport report, String what) {
+        if (ok) return true;
+        report.success = false;
+        System.err.println("Could not " + what + " of " + report.name);
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package org.usfirst.frc4904.standard.custom.motorcontrollers;
+
+/**
+ * Status signals a motor controller can send over CAN. Used to declare which
+ * ones a subsystem reads, so the rest can be slowed down to save bus
+ * bandwidth (see SmartMotorController.setStatusSignalRates).
+ *
+ * Rates are approximate and only used for the bus utilization estimate and as
+ * the rate to request for consumed signals; they are close to the vendor
+ * defaults.
+ */
+public enum MotorSignal {
+    POSITION(50, 50),
+    VELOCITY(50, 50),
+    CURRENT(50, 50),
+    APPLIED_OUTPUT(100, 100),   // also what followers follow; keep it on lead motors with followers
+    TEMPERATURE(4, 4),
+    LIMIT_SWITCHES(100, 100);
+
+    /**
+     * Rate of signals that are not consumed. TalonFX signals are slowed down
+     * to it by optimizeBusUtilization, SparkMax frames by their periods.
+     */
+    public static final double UNUSED_HZ = 4;
+
+    /**
+     * Rate the signal is sent at when status signal rates are not managed.
+     */
+    public final double defaultHz;
+    /**
+     * Rate requested for the signal when it is consumed.
+     */
+    public final double consumedHz;
+
+    MotorSignal(double defaultHz, double consumedHz) {
+        this.defaultHz = defaultHz;
+        this.consumedHz = consumedHz;
+    }
+}
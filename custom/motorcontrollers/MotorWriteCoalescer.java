@@ -0,0 +1,151 @@
+package org.usfirst.frc4904.standard.custom.motorcontrollers;
+
+import org.usfirst.frc4904.standard.custom.TimerWheel;
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+
+/**
+ * Skips redundant writes to a SmartMotorController. Remembers the last control
+ * mode and value sent, and drops writes in the same mode within epsilon of it,
+ * so commands that set the same power or voltage every tick (eg.
+ * SmartMotorSubsystem.c_holdPower) do not put an identical control frame on
+ * the CAN bus every loop.
+ *
+ * A repeated write is still sent once refreshPeriod has passed since the last
+ * one, to keep feeding the motor safety watchdog (0.1s by default) and so a
+ * setVoltage on a controller that compensates with the current battery voltage
+ * is never more than refreshPeriod stale.
+ *
+ * Anything that changes the output without going through the coalescer (eg.
+ * neutralOutput(), disable(), or a closed loop control mode) must call
+ * invalidate() so the next write is always sent.
+ *
+ * While outputs are inhibited (eg. during a JIT warm-up pass), writes run
+ * through all of the above but nothing is sent to any motor controller;
+ * invalidate() afterwards.
+ *
+ * Writes that are sent are recorded by InputReplay under the coalescer's name,
+ * and checked against the recording when replaying. Times are those of the current tick
+ * (TimerWheel.now()), so replays make the same decisions.
+ */
+public class MotorWriteCoalescer {
+    public static final double DEFAULT_POWER_EPSILON = 0.001;    // same as the TalonFX minimum neutral deadband
+    public static final double DEFAULT_VOLTAGE_EPSILON = 0.012;  // 0.1% of 12V
+    public static final double DEFAULT_REFRESH_PERIOD = 0.05;    // seconds; half of the default motor safety expiration
+
+    private enum Mode { NONE, POWER, VOLTAGE }
+
+    private static boolean outputInhibited = false;
+    private static int coalescers = 0;
+
+    public final SmartMotorController motor;
+    protected final double powerEpsilon;
+    protected final double voltageEpsilon;
+    protected final double refreshPeriod;
+    private Mode lastMode = Mode.NONE;
+    private double lastValue;
+    private double lastWriteTime;
+    private long sentWrites;
+    private long suppressedWrites;
+    private final short powerChannel;
+    private final short voltageChannel;
+
+    /**
+     * @param name           Unique name, for InputReplay
+     * @param motor          The motor controller to write to
+     * @param powerEpsilon   Power changes smaller than this are not sent
+     * @param voltageEpsilon Voltage changes smaller than this are not sent
+     * @param refreshPeriod  Seconds after which a repeated write is sent anyway
+     */
+    public MotorWriteCoalescer(String name, SmartMotorController motor, double powerEpsilon, double voltageEpsilon, double refreshPeriod) {
+        this.motor = motor;
+        this.powerEpsilon = powerEpsilon;
+        this.voltageEpsilon = voltageEpsilon;
+        this.refreshPeriod = refreshPeriod;
+        powerChannel = InputReplay.channel(name + " power");
+        voltageChannel = InputReplay.channel(name + " voltage");
+    }
+
+    public MotorWriteCoalescer(String name, SmartMotorController motor) {
+        this(name, motor, DEFAULT_POWER_EPSILON, DEFAULT_VOLTAGE_EPSILON, DEFAULT_REFRESH_PERIOD);
+    }
+
+    /**
+     * Named in creation order, which InputReplay only matches up if the
+     * coalescers are created in the same order when replaying.
+     */
+    public MotorWriteCoalescer(SmartMotorController motor, double powerEpsilon, double voltageEpsilon, double refreshPeriod) {
+        this(nextName(), motor, powerEpsilon, voltageEpsilon, refreshPeriod);
+    }
+
+    public MotorWriteCoalescer(SmartMotorController motor) {
+        this(motor, DEFAULT_POWER_EPSILON, DEFAULT_VOLTAGE_EPSILON, DEFAULT_REFRESH_PERIOD);
+    }
+
+    private static synchronized String nextName() {
+        return "MotorWriteCoalescer " + coalescers++;
+    }
+
+    /**
+     * @param inhibited Whether writes from every coalescer are dropped instead
+     *                  of being sent. Only meant for the main robot thread.
+     */
+    public static void setOutputInhibited(boolean inhibited) {
+        outputInhibited = inhibited;
+    }
+
+    public static boolean isOutputInhibited() {
+        return outputInhibited;
+    }
+
+    private boolean shouldWrite(Mode mode, double value, double epsilon) {
+        double now = TimerWheel.now();
+        if (mode == lastMode && Math.abs(value - lastValue) <= epsilon && now - lastWriteTime < refreshPeriod) {
+            if (!outputInhibited) suppressedWrites++;
+            return false;
+        }
+        lastMode = mode;
+        lastValue = value;
+        lastWriteTime = now;
+        if (outputInhibited) return false;
+        sentWrites++;
+        return true;
+    }
+
+    /**
+     * Sets the motor power, unless it is within powerEpsilon of the last power
+     * sent less than refreshPeriod ago.
+     */
+    public void set(double power) {
+        if (!shouldWrite(Mode.POWER, power, powerEpsilon)) return;
+        InputReplay.output(powerChannel, power);
+        motor.set(power);
+    }
+
+    /**
+     * Sets the motor voltage, unless it is within voltageEpsilon of the last
+     * voltage sent less than refreshPeriod ago.
+     */
+    public void setVoltage(double voltage) {
+        if (!shouldWrite(Mode.VOLTAGE, voltage, voltageEpsilon)) return;
+        InputReplay.output(voltageChannel, voltage);
+        motor.setVoltage(voltage);
+    }
+
+    /**
+     * Forgets the last output, so that the next set() or setVoltage() is always
+     * sent. Call after changing the output some other way.
+     */
+    public void invalidate() {
+        lastMode = Mode.NONE;
+    }
+
+    /**
+     * @return the number of writes passed through to the motor controller
+     */
+    public long getSentWrites() { return sentWrites; }
+
+    /**
+     * @return the number of redundant writes that were not sent
+     */
+    public long getSuppressedWrites() { return suppressedWrites; }
+}
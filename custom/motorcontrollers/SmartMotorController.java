@@ -3,6 +3,8 @@
 
 package org.usfirst.frc4904.standard.custom.motorcontrollers;
 
+import java.util.EnumSet;
+
 import edu.wpi.first.wpilibj.motorcontrol.MotorController;
 
 /**
@@ -19,4 +21,60 @@ public interface SmartMotorController extends MotorController {
 	SmartMotorController setBrakeOnNeutral();
 	SmartMotorController setCoastOnNeutral();
 	void neutralOutput();
+
+	/**
+	 * Follow another motor controller's output on the controller itself, until
+	 * this motor is sent another output or neutralOutput().
+	 *
+	 * @param leader       The motor to follow; must be the same kind of motor
+	 *                     controller
+	 * @param opposeLeader Whether to spin opposite to the leader
+	 * @throws IllegalArgumentException if this controller cannot follow leader
+	 */
+	void follow(SmartMotorController leader, boolean opposeLeader);
+
+	/**
+	 * Checks whether the controller has reset (eg. in a brownout), which
+	 * reverts it to its saved config and drops follow mode.
+	 *
+	 * @return the number of resets seen since construction; controllers that
+	 *         cannot tell always return 0
+	 */
+	default int getResetCount() {
+		return 0;
+	}
+
+	/**
+	 * Sends the consumed status signals at their MotorSignal.consumedHz rate and
+	 * slows down (or disables) the rest to save CAN bandwidth. Reading an
+	 * unconsumed signal afterwards may give stale data.
+	 */
+	void setStatusSignalRates(EnumSet<MotorSignal> consumed);
+
+	/**
+	 * Configures the on-controller motion profile (Motion Magic on Talons,
+	 * MAXMotion on SparkMaxes) and its position PID.
+	 *
+	 * @param cruiseVelocityRPS  Maximum profile velocity, in rotations per second
+	 * @param accelerationRPSPS  Profile acceleration, in rotations per second^2
+	 * @param kP                 volts per rotation of error
+	 * @param kI                 volts per rotation*second of error
+	 * @param kD                 volts per rotation/second of error
+	 * @param kV                 volts per rotation/second of profile velocity
+	 */
+	void configDynamicMotionProfile(double cruiseVelocityRPS, double accelerationRPSPS, double kP, double kI, double kD, double kV);
+
+	/**
+	 * Starts moving to a position with the on-controller motion profile. Call
+	 * configDynamicMotionProfile first.
+	 *
+	 * @param rotations Target position, in motor shaft rotations
+	 */
+	void setDynamicMotionProfileTargetRotations(double rotations);
+
+	/**
+	 * @return distance from the last dynamic motion profile target, in
+	 *         rotations, from the controller's own closed loop signals
+	 */
+	double getDynamicMotionProfileErrorRotations();
 }
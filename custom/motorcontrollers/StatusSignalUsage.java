@@ -0,0 +1,85 @@
+package org.usfirst.frc4904.standard.custom.motorcontrollers;
+
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Records which status signals are read from which motor controllers during a
+ * dry run (eg. one tick of the robot's commands), so the signals a subsystem
+ * declares it consumes can be checked against what it actually reads.
+ *
+ * SmartMotorController getters call record(); code that reads vendor signals
+ * directly (eg. talon.motor.getPosition()) should call it too.
+ *
+ * Recording is only meant for the main robot thread; record() is a single
+ * boolean check when not recording.
+ */
+public final class StatusSignalUsage {
+    public static final double CAN_BITRATE = 1_000_000;    // bits per second, FRC CAN bus
+    public static final double BITS_PER_FRAME = 128;       // extended id + 8 data bytes + overhead and typical bit stuffing
+
+    private static boolean recording = false;
+    private static final Map<SmartMotorController, EnumSet<MotorSignal>> used = new IdentityHashMap<>();
+
+    private StatusSignalUsage() {}
+
+    /**
+     * Starts recording, forgetting anything recorded before.
+     */
+    public static void startRecording() {
+        used.clear();
+        recording = true;
+    }
+
+    /**
+     * Stops recording. The recording can still be read with getUsed().
+     */
+    public static void stopRecording() {
+        recording = false;
+    }
+
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Notes that signal was read from motor, if recording.
+     */
+    public static void record(SmartMotorController motor, MotorSignal signal) {
+        if (!recording) return;
+        used.computeIfAbsent(motor, m -> EnumSet.noneOf(MotorSignal.class)).add(signal);
+    }
+
+    /**
+     * @return the signals read from motor during the last recording
+     */
+    public static EnumSet<MotorSignal> getUsed(SmartMotorController motor) {
+        var signals = used.get(motor);
+        return signals == null ? EnumSet.noneOf(MotorSignal.class) : EnumSet.copyOf(signals);
+    }
+
+    /**
+     * Estimates the status frames per second sent by one motor controller,
+     * assuming one frame per signal.
+     *
+     * @param consumed The consumed signals, or null if rates are not managed
+     *                 (every signal at its default rate)
+     */
+    public static double estimateFramesPerSecond(EnumSet<MotorSignal> consumed) {
+        double frames = 0;
+        for (MotorSignal signal : MotorSignal.values()) {
+            if (consumed == null) frames += signal.defaultHz;
+            else frames += consumed.contains(signal) ? signal.consumedHz : MotorSignal.UNUSED_HZ;
+        }
+        return frames;
+    }
+
+    /**
+     * @return the fraction of CAN bus bandwidth used by this many frames per
+     *         second
+     */
+    public static double busUtilization(double framesPerSecond) {
+        return framesPerSecond * BITS_PER_FRAME / CAN_BITRATE;
+    }
+}
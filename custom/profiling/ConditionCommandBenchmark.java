@@ -0,0 +1,153 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import org.usfirst.frc4904.standard.commands.DoubleThresholdCommand;
+import org.usfirst.frc4904.standard.commands.ThresholdCommand;
+import org.usfirst.frc4904.standard.commands.WaitUntil;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.InstantCommand;
+
+/**
+ * Measures the per-tick cost of CommandScheduler.run() with 100 condition
+ * commands scheduled: half waiting on a condition, half watching an axis
+ * against a threshold. It runs once with boxed conditions (Supplier<Boolean>,
+ * ThresholdCommand<Double>) and once with primitive ones (WaitUntil with a
+ * BooleanSupplier, DoubleThresholdCommand), and prints the time and the bytes
+ * allocated per tick for each.
+ *
+ * Run on a desktop JVM (simulation HAL), eg. from a desktop run configuration:
+ * ConditionCommandBenchmark [ticks] [rounds]. The conditions come from four
+ * lambda classes per call site, as with many different bindings on a robot;
+ * with a single class per call site, escape analysis usually removes the
+ * boxing and both versions cost the same.
+ */
+public final class ConditionCommandBenchmark {
+    public static final int COMMANDS = 100;
+    public static final int DEFAULT_TICKS = 300_000;
+    public static final int DEFAULT_ROUNDS = 4;
+    private static final int WARMUP_TICKS = 200_000;
+
+    // read by the conditions; the axes stay below the threshold so nothing is scheduled or cancelled
+    private static volatile boolean flag0, flag1, flag2, flag3;
+    private static volatile double axis0, axis1, axis2, axis3;
+
+    private ConditionCommandBenchmark() {}
+
+    /**
+     * WaitUntil as it was before it took a BooleanSupplier, as the baseline.
+     */
+    private static class BoxedWaitUntil extends Command {
+        private final Supplier<Boolean> stopCondition;
+
+        BoxedWaitUntil(Supplier<Boolean> stopCondition) {
+            this.stopCondition = stopCondition;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return stopCondition.get();
+        }
+    }
+
+    private static Supplier<Boolean> boxedCondition(int i) {
+        switch (i % 4) {
+            case 0: return () -> flag0;
+            case 1: return () -> flag1;
+            case 2: return () -> flag2;
+            default: return () -> flag3;
+        }
+    }
+
+    private static Supplier<Double> boxedAxis(int i) {
+        switch (i % 4) {
+            case 0: return () -> axis0;
+            case 1: return () -> axis1;
+            case 2: return () -> axis2;
+            default: return () -> axis3;
+        }
+    }
+
+    private static BooleanSupplier condition(int i) {
+        switch (i % 4) {
+            case 0: return () -> flag0;
+            case 1: return () -> flag1;
+            case 2: return () -> flag2;
+            default: return () -> flag3;
+        }
+    }
+
+    private static DoubleSupplier axis(int i) {
+        switch (i % 4) {
+            case 0: return () -> axis0;
+            case 1: return () -> axis1;
+            case 2: return () -> axis2;
+            default: return () -> axis3;
+        }
+    }
+
+    private static Command[] boxedCommands() {
+        var commands = new Command[COMMANDS];
+        for (int i = 0; i < COMMANDS / 2; i++) {
+            commands[2 * i] = new BoxedWaitUntil(boxedCondition(i));
+            commands[2 * i + 1] = new ThresholdCommand<Double>(new InstantCommand(), boxedAxis(i), 0.5);
+        }
+        return commands;
+    }
+
+    private static Command[] primitiveCommands() {
+        var commands = new Command[COMMANDS];
+        for (int i = 0; i < COMMANDS / 2; i++) {
+            commands[2 * i] = new WaitUntil(condition(i));
+            commands[2 * i + 1] = new DoubleThresholdCommand(new InstantCommand(), axis(i), 0.5);
+        }
+        return commands;
+    }
+
+    /**
+     * Schedules commands, runs the scheduler for ticks after warming up, and
+     * cancels them.
+     *
+     * @return nanoseconds and bytes allocated per tick
+     */
+    private static double[] run(Command[] commands, int ticks) {
+        var scheduler = CommandScheduler.getInstance();
+        for (Command command : commands) scheduler.schedule(command);
+        for (int i = 0; i < WARMUP_TICKS; i++) scheduler.run();
+        long startBytes = MemoryTelemetry.allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) scheduler.run();
+        double nanos = (System.nanoTime() - start) / (double) ticks;
+        double bytes = (MemoryTelemetry.allocatedBytes() - startBytes) / (double) ticks;
+        scheduler.cancelAll();
+        return new double[] { nanos, bytes };
+    }
+
+    /**
+     * @param args The number of measured ticks per round and the number of
+     *             rounds, both optional
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TICKS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        HAL.initialize(500, 0);
+        DriverStationSim.setEnabled(true);    // commands that do not run when disabled are cancelled otherwise
+        DriverStationSim.notifyNewData();
+        Command[] boxed = boxedCommands();
+        Command[] primitive = primitiveCommands();
+        System.out.printf("ConditionCommandBenchmark: %d commands, %d ticks per round%n", COMMANDS, ticks);
+        for (int round = 0; round < rounds; round++) {
+            double[] before = run(boxed, ticks);
+            double[] after = run(primitive, ticks);
+            System.out.printf("  boxed %.0f ns/tick, %.0f B/tick | primitive %.0f ns/tick, %.0f B/tick%n", before[0],
+                before[1], after[0], after[1]);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,88 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of durations (or any non-negative long, eg. bytes)
+ * with log-spaced buckets, for percentiles that are cheap enough to record
+ * every tick in a match. Recording is a few shifts and an array increment and
+ * never allocates.
+ *
+ * Buckets are 8 per power of two, so percentiles are reported as the upper
+ * bound of their bucket, at most 12.5% above the true value. Values below
+ * 1024 share the first bucket.
+ *
+ * Not thread safe; record and read from the same thread.
+ */
+public class LoopHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = 10;     // values below 2^10 go into bucket 0
+    private static final int MAX_EXPONENT = 62;
+    private static final int BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+    private long sum;
+
+    /**
+     * Records one value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    private static int bucket(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent < MIN_EXPONENT) return 0;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket == 0) return (1L << MIN_EXPONENT) - 1;
+        int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @param fraction Percentile as a fraction, eg. 0.99
+     * @return an upper bound on the value below which that fraction of
+     *         recorded values fall, or 0 if nothing was recorded
+     */
+    public long percentile(double fraction) {
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    public long getCount() { return count; }
+
+    public long getMax() { return max; }
+
+    /**
+     * @return the mean of recorded values, or 0 if nothing was recorded
+     */
+    public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+
+    /**
+     * Forgets every recorded value, eg. at the start of a reporting window.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+        sum = 0;
+    }
+}
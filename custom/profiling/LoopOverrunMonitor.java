@@ -0,0 +1,224 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * Catches loop overruns in the act. A background thread watches the tick
+ * started by tickStarted(), and once a tick has run longer than the budget it
+ * captures the main thread's stack, so the sample shows what the robot was
+ * doing while the budget ran out (WPILib's overrun warning only prints after
+ * the fact). Samples go into a ring buffer of the most recent overruns, which
+ * writeDump() saves to OVERRUN_DIRECTORY under the operating directory.
+ *
+ * At most one stack is captured per tick, and at most one per
+ * minCaptureInterval, because capturing a stack briefly pauses the main thread.
+ * The thread sleeps until the budget of the current tick runs out, and after
+ * that (or after an overrun) until the next tick starts, so it wakes about
+ * twice per tick.
+ *
+ * CommandRobotBase starts the monitor in robotInit with the robot's period as
+ * the budget, marks its periodic functions as ticks, and requests a dump on
+ * disabledInit (eg. after each match).
+ */
+public final class LoopOverrunMonitor {
+    public static final String OVERRUN_DIRECTORY = "overruns";
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final double DEFAULT_MIN_CAPTURE_INTERVAL = 1.0;    // seconds
+
+    /**
+     * One captured overrun.
+     */
+    public static class Sample {
+        public final long tick;
+        public final long wallTimeMillis;
+        public final double elapsedAtCaptureMs;
+        public final StackTraceElement[] stack;
+        volatile double tickDurationMs = Double.NaN;    // set by the main thread when the tick ends
+
+        Sample(long tick, double elapsedAtCaptureMs, StackTraceElement[] stack) {
+            this.tick = tick;
+            this.wallTimeMillis = System.currentTimeMillis();
+            this.elapsedAtCaptureMs = elapsedAtCaptureMs;
+            this.stack = stack;
+        }
+
+        /**
+         * @return how long the overrunning tick took in total, or NaN if it
+         *         has not ended yet
+         */
+        public double getTickDurationMs() {
+            return tickDurationMs;
+        }
+    }
+
+    private static volatile long tickStart = 0;    // System.nanoTime() of the current tick, 0 between ticks
+    private static volatile long tick = 0;
+    private static volatile long budgetNanos;
+    private static volatile long minCaptureIntervalNanos = (long) (DEFAULT_MIN_CAPTURE_INTERVAL * 1e9);
+    private static volatile boolean dumpRequested = false;
+    private static volatile Sample lastSample;
+    private static Sample[] samples = new Sample[DEFAULT_CAPACITY];
+    private static int nextSample = 0;
+    private static long overruns = 0;
+    private static volatile Thread monitorThread;
+
+    private LoopOverrunMonitor() {}
+
+    /**
+     * Starts the monitor thread, if it is not running.
+     *
+     * @param mainThread    The thread that calls tickStarted() and tickEnded()
+     * @param budgetSeconds Ticks longer than this are overruns
+     */
+    public static synchronized void start(Thread mainThread, double budgetSeconds) {
+        setBudget(budgetSeconds);
+        if (monitorThread != null) return;
+        monitorThread = new Thread(() -> monitor(mainThread), "LoopOverrunMonitor");
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+    }
+
+    public static void setBudget(double seconds) {
+        budgetNanos = (long) (seconds * 1e9);
+    }
+
+    /**
+     * @param seconds Minimum time between two stack captures
+     */
+    public static void setMinCaptureInterval(double seconds) {
+        minCaptureIntervalNanos = (long) (seconds * 1e9);
+    }
+
+    /**
+     * @param capacity Number of recent samples kept. Forgets current samples.
+     */
+    public static synchronized void setCapacity(int capacity) {
+        samples = new Sample[capacity];
+        nextSample = 0;
+    }
+
+    /**
+     * Marks the start of a tick. Called from the main thread.
+     */
+    public static void tickStarted() {
+        tick++;
+        tickStart = System.nanoTime();
+        Thread monitor = monitorThread;
+        if (monitor != null) LockSupport.unpark(monitor);
+    }
+
+    /**
+     * Marks the end of the tick. Called from the main thread.
+     */
+    public static void tickEnded() {
+        long start = tickStart;
+        tickStart = 0;
+        Sample sample = lastSample;
+        if (sample != null && sample.tick == tick) sample.tickDurationMs = (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * @return the number of overruns seen since startup, including ones whose
+     *         stack was not captured because of the rate limit
+     */
+    public static synchronized long getOverrunCount() {
+        return overruns;
+    }
+
+    /**
+     * Asks the monitor thread to writeDump(), so the main thread does not block
+     * on the filesystem. Does nothing if there are no samples.
+     */
+    public static void requestDump() {
+        dumpRequested = true;
+        Thread monitor = monitorThread;
+        if (monitor != null) LockSupport.unpark(monitor);
+    }
+
+    private static void monitor(Thread mainThread) {
+        long lastCapture = Long.MIN_VALUE / 2;
+        long lastOverrunTick = -1;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (dumpRequested) {
+                dumpRequested = false;
+                writeDump();
+            }
+            long start = tickStart;
+            long current = tick;
+            if (start == 0 || current == lastOverrunTick) {
+                LockSupport.park();    // until tickStarted() or requestDump()
+                continue;
+            }
+            long now = System.nanoTime();
+            long untilOverrun = start + budgetNanos - now;
+            if (untilOverrun >= 0) {
+                LockSupport.parkNanos(untilOverrun + 1);    // then check again, the tick may have ended
+                continue;
+            }
+            lastOverrunTick = current;
+            boolean capture = now - lastCapture >= minCaptureIntervalNanos;
+            synchronized (LoopOverrunMonitor.class) {
+                overruns++;
+            }
+            if (capture) {
+                lastCapture = now;
+                StackTraceElement[] stack = mainThread.getStackTrace();
+                // only keep the stack if it was taken during the same tick
+                if (tick == current && tickStart == start) add(new Sample(current, (now - start) / 1e6, stack));
+            }
+        }
+    }
+
+    private static synchronized void add(Sample sample) {
+        samples[nextSample] = sample;
+        nextSample = (nextSample + 1) % samples.length;
+        lastSample = sample;
+    }
+
+    /**
+     * Writes every buffered sample, oldest first, to a new timestamped file in
+     * OVERRUN_DIRECTORY and clears the buffer.
+     *
+     * @return the file written, or null if there were no samples or it could
+     *         not be written
+     */
+    public static synchronized Path writeDump() {
+        if (samples[(nextSample + samples.length - 1) % samples.length] == null) return null;
+        String name = "overruns-" + new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()) + ".txt";
+        Path path = Filesystem.getOperatingDirectory().toPath().resolve(OVERRUN_DIRECTORY).resolve(name);
+        try {
+            Files.createDirectories(path.getParent());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+                out.printf("%d overruns since startup, budget %.1fms%n", overruns, budgetNanos / 1e6);
+                for (int i = 0; i < samples.length; i++) {
+                    Sample sample = samples[(nextSample + i) % samples.length];
+                    if (sample != null) write(out, sample);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write loop overruns to " + path);
+            e.printStackTrace();
+            return null;
+        }
+        Arrays.fill(samples, null);
+        nextSample = 0;
+        return path;
+    }
+
+    private static void write(PrintWriter out, Sample sample) {
+        out.println();
+        out.printf("tick %d at %s: captured after %.1fms, tick took %.1fms%n", sample.tick,
+            new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(sample.wallTimeMillis)), sample.elapsedAtCaptureMs,
+            sample.tickDurationMs);
+        for (StackTraceElement element : sample.stack) out.println("\tat " + element);
+    }
+}
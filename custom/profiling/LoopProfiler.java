@@ -0,0 +1,252 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.WrapperCommand;
+
+/**
+ * Times named parts of the robot loop into LoopHistograms and periodically
+ * publishes their p50, p99 and max (in milliseconds) to NetworkTables under
+ * LoopProfiler/, then starts a new window. Cheap enough to leave on in
+ * matches: recording is two System.nanoTime() calls and a histogram update.
+ * Entries can also record the bytes allocated by their phase (see
+ * MemoryTelemetry), which are published next to the times.
+ *
+ * CommandRobotBase times its own phases (signal refresh, CommandScheduler.run,
+ * the mode's *Execute and alwaysExecute) and their allocations, and each
+ * command's step of CommandScheduler.run (see profileCommands()). WPILib does
+ * not expose the time of each subsystem periodic or of a command's execute()
+ * or isFinished() alone, so those are opt in: wrap commands with profile(),
+ * and time subsystem code with an entry:
+ *
+ * <pre>
+ * private static final LoopProfiler.Entry PROFILE = LoopProfiler.entry("Arm.periodic()");
+ * public void periodic() {
+ *     long start = System.nanoTime();
+ *     ...
+ *     PROFILE.stop(start);
+ * }
+ * </pre>
+ *
+ * Entries are only meant to be used from the main robot thread.
+ */
+public final class LoopProfiler {
+    public static final String TABLE = "LoopProfiler/";
+    public static final double DEFAULT_PUBLISH_PERIOD = 1.0;    // seconds
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+    private static final List<Entry> entryList = new ArrayList<>();
+    private static boolean enabled = true;
+    private static double publishPeriod = DEFAULT_PUBLISH_PERIOD;
+    private static double lastPublish = Double.NEGATIVE_INFINITY;
+    private static final Map<Command, Entry> commandEntries = new WeakHashMap<>();    // weak, so commands made on the fly are not kept
+    private static boolean profilingCommands = false;
+    private static long lastCommandMark;    // System.nanoTime() of the last onCommandExecute, or of the start of the commands
+
+    private LoopProfiler() {}
+
+    /**
+     * A named timing histogram. Keys are built once so publishing does not
+     * concatenate strings every time.
+     */
+    public static class Entry {
+        public final String name;
+        public final LoopHistogram histogram = new LoopHistogram();
+        public final LoopHistogram allocated = new LoopHistogram();
+        private final String p50Key;
+        private final String p99Key;
+        private final String maxKey;
+        private final String allocatedP50Key;
+        private final String allocatedMaxKey;
+
+        private Entry(String name) {
+            this.name = name;
+            p50Key = TABLE + name + "/p50 ms";
+            p99Key = TABLE + name + "/p99 ms";
+            maxKey = TABLE + name + "/max ms";
+            allocatedP50Key = TABLE + name + "/p50 bytes";
+            allocatedMaxKey = TABLE + name + "/max bytes";
+        }
+
+        /**
+         * Records a duration in nanoseconds, if profiling is enabled.
+         */
+        public void record(long nanos) {
+            if (enabled) histogram.record(nanos);
+        }
+
+        /**
+         * Records the time since startNanos, a System.nanoTime() value.
+         */
+        public void stop(long startNanos) {
+            if (enabled) histogram.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Records a duration in nanoseconds and the bytes allocated meanwhile,
+         * if profiling is enabled.
+         */
+        public void record(long nanos, long bytes) {
+            if (!enabled) return;
+            histogram.record(nanos);
+            allocated.record(bytes);
+        }
+
+        /**
+         * Records the time and allocations since startNanos and startBytes,
+         * values of System.nanoTime() and MemoryTelemetry.allocatedBytes().
+         */
+        public void stop(long startNanos, long startBytes) {
+            record(System.nanoTime() - startNanos, MemoryTelemetry.allocatedBytes() - startBytes);
+        }
+
+        private void publish() {
+            SmartDashboard.putNumber(p50Key, histogram.percentile(0.5) / 1e6);
+            SmartDashboard.putNumber(p99Key, histogram.percentile(0.99) / 1e6);
+            SmartDashboard.putNumber(maxKey, histogram.getMax() / 1e6);
+            if (allocated.getCount() > 0) {
+                SmartDashboard.putNumber(allocatedP50Key, allocated.percentile(0.5));
+                SmartDashboard.putNumber(allocatedMaxKey, allocated.getMax());
+            }
+            histogram.reset();
+            allocated.reset();
+        }
+    }
+
+    /**
+     * @return the entry with this name, created on first use. Call once and
+     *         keep the entry (eg. in a static field), not every tick.
+     */
+    public static Entry entry(String name) {
+        return entries.computeIfAbsent(name, n -> {
+            var entry = new Entry(n);
+            entryList.add(entry);
+            return entry;
+        });
+    }
+
+    /**
+     * @return every entry, in creation order
+     */
+    public static List<Entry> getEntries() {
+        return entryList;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        LoopProfiler.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param seconds Length of each reporting window
+     */
+    public static void setPublishPeriod(double seconds) {
+        publishPeriod = seconds;
+    }
+
+    /**
+     * Publishes and resets every entry, and the MemoryTelemetry window, if the
+     * publish period has passed. Called by CommandRobotBase every tick.
+     *
+     * @param nowSeconds The current time
+     */
+    public static void publishIfDue(double nowSeconds) {
+        if (!enabled || nowSeconds - lastPublish < publishPeriod) return;
+        lastPublish = nowSeconds;
+        for (int i = 0; i < entryList.size(); i++) entryList.get(i).publish();
+        MemoryTelemetry.publish();
+    }
+
+    /**
+     * Times each scheduled command's step of CommandScheduler.run into an
+     * entry named "name (scheduler step)". Called by CommandRobotBase in
+     * robotInit.
+     *
+     * WPILib only reports when each execute() has returned
+     * (CommandScheduler.onCommandExecute), so a step is timed from the
+     * previous command's report: it is this command's execute() plus the
+     * previous command's isFinished(), end() and scheduler bookkeeping. The
+     * first command of a tick is timed from the poll of the scheduler's
+     * default button loop, which runs just before the commands, so its step
+     * includes the Triggers bound to that loop after this was called. A large
+     * step points at its command or the one before it; wrap both with
+     * profile() to time their execute() and isFinished() exactly.
+     */
+    public static void profileCommands() {
+        if (profilingCommands) return;
+        profilingCommands = true;
+        var scheduler = CommandScheduler.getInstance();
+        scheduler.getDefaultButtonLoop().bind(() -> lastCommandMark = System.nanoTime());
+        scheduler.onCommandExecute(command -> {
+            long now = System.nanoTime();
+            if (enabled) commandEntry(command).record(now - lastCommandMark);
+            lastCommandMark = now;
+        });
+    }
+
+    /**
+     * Marks the start of CommandScheduler.run(), in case the default button
+     * loop is not polled (eg. another loop was made active). Called by
+     * CommandRobotBase.
+     *
+     * @param nanos The System.nanoTime() value
+     */
+    public static void commandsStarting(long nanos) {
+        lastCommandMark = nanos;
+    }
+
+    private static Entry commandEntry(Command command) {
+        Entry entry = commandEntries.get(command);
+        if (entry == null) {
+            entry = entry(command.getName() + " (scheduler step)");
+            commandEntries.put(command, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Wraps a command to time its execute() and isFinished() into entries
+     * named after it.
+     *
+     * @return the wrapped command, to be scheduled instead of command
+     */
+    public static Command profile(Command command) {
+        return new ProfiledCommand(command);
+    }
+
+    private static class ProfiledCommand extends WrapperCommand {
+        private final Entry execute;
+        private final Entry isFinished;
+
+        ProfiledCommand(Command command) {
+            super(command);
+            execute = entry(command.getName() + ".execute()");
+            isFinished = entry(command.getName() + ".isFinished()");
+        }
+
+        @Override
+        public void execute() {
+            long start = System.nanoTime();
+            m_command.execute();
+            execute.stop(start);
+        }
+
+        @Override
+        public boolean isFinished() {
+            long start = System.nanoTime();
+            boolean finished = m_command.isFinished();
+            isFinished.stop(start);
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Garbage collection, allocation and heap telemetry for the robot loop, to
+ * tell whether latency spikes line up with GC pauses and which loop phase
+ * allocates.
+ *
+ * allocatedBytes() reads the main thread's allocation counter, which
+ * CommandRobotBase records per phase into the LoopProfiler entries next to
+ * their times. tickEnded() is called once per tick and checks whether a
+ * collection happened during the tick; ticks with a collection get their loop
+ * time recorded in a separate LoopProfiler entry, so the two distributions can
+ * be compared. Everything is published with LoopProfiler's window under
+ * LoopProfiler/GC/.
+ *
+ * Nothing here allocates per tick. Heap usage is read from Runtime rather than
+ * MemoryMXBean, which allocates a MemoryUsage on every call.
+ */
+public final class MemoryTelemetry {
+    private static final String GC_TICKS_KEY = LoopProfiler.TABLE + "GC/ticks with GC";
+    private static final String GC_TIME_KEY = LoopProfiler.TABLE + "GC/collection ms";
+    private static final String HEAP_USED_KEY = LoopProfiler.TABLE + "GC/max heap used MB";
+    private static final String HEAP_MAX_KEY = LoopProfiler.TABLE + "GC/heap max MB";
+
+    private static final com.sun.management.ThreadMXBean threadBean;
+    private static final GarbageCollectorMXBean[] collectors;
+    private static final Runtime runtime = Runtime.getRuntime();
+    private static final LoopProfiler.Entry gcLoop = LoopProfiler.entry("CommandRobotBase.loop with GC");
+    private static long lastCollections;
+    private static long lastCollectionMillis;
+    private static long windowGCTicks;
+    private static long windowCollectionMillis;
+    private static long windowMaxHeapUsed;
+
+    static {
+        var bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadBean = null;
+            System.err.println("MemoryTelemetry: per-thread allocation counting is not supported by this JVM");
+        }
+        List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        collectors = beans.toArray(new GarbageCollectorMXBean[0]);
+        lastCollections = collections();
+        lastCollectionMillis = collectionMillis();
+    }
+
+    private MemoryTelemetry() {}
+
+    /**
+     * @return the number of bytes the current thread has allocated since it
+     *         started, or 0 if the JVM cannot tell
+     */
+    public static long allocatedBytes() {
+        return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) total += Math.max(0, collector.getCollectionCount());
+        return total;
+    }
+
+    private static long collectionMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) total += Math.max(0, collector.getCollectionTime());
+        return total;
+    }
+
+    /**
+     * Checks for collections since the last call and samples heap usage.
+     * Called by CommandRobotBase at the end of every tick.
+     *
+     * @param loopNanos How long this tick took
+     * @return whether a collection happened since the last call
+     */
+    public static boolean tickEnded(long loopNanos) {
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        if (used > windowMaxHeapUsed) windowMaxHeapUsed = used;
+        long collections = collections();
+        if (collections == lastCollections) return false;
+        long millis = collectionMillis();
+        windowGCTicks++;
+        windowCollectionMillis += millis - lastCollectionMillis;
+        lastCollections = collections;
+        lastCollectionMillis = millis;
+        gcLoop.record(loopNanos);
+        return true;
+    }
+
+    /**
+     * Publishes the GC counts and heap usage of this window and starts a new
+     * one. Called by LoopProfiler.publishIfDue().
+     */
+    static void publish() {
+        SmartDashboard.putNumber(GC_TICKS_KEY, windowGCTicks);
+        SmartDashboard.putNumber(GC_TIME_KEY, windowCollectionMillis);
+        SmartDashboard.putNumber(HEAP_USED_KEY, windowMaxHeapUsed / 1e6);
+        SmartDashboard.putNumber(HEAP_MAX_KEY, runtime.maxMemory() / 1e6);
+        windowGCTicks = 0;
+        windowCollectionMillis = 0;
+        windowMaxHeapUsed = 0;
+    }
+}
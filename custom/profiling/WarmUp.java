@@ -0,0 +1,142 @@
+package org.usfirst.frc4904.standard.custom.profiling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.usfirst.frc4904.standard.custom.Warmable;
+import org.usfirst.frc4904.standard.custom.motorcontrollers.MotorWriteCoalescer;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Runs registered control paths (subsystems, controllers, anything Warmable)
+ * over and over before the match, so the JIT has compiled them by the first
+ * autonomous tick instead of interpreting them while it matters most. Motor
+ * writes through MotorWriteCoalescer are inhibited for the duration.
+ *
+ * CommandRobotBase runs initIterations in robotInit, after initialize(), and
+ * then up to disabledIterations more in disabledPeriodic, a few per tick
+ * within disabledSecondsPerTick. Both default to 0 (no warm-up); call
+ * configure() and register() in initialize(). HotSpot compiles a method after
+ * roughly ten thousand calls, so a few thousand to tens of thousands of
+ * iterations are typical.
+ *
+ * The time of each iteration is kept, and a summary is printed and published
+ * under WarmUp/ so convergence (iterations getting faster until flat) can be
+ * checked.
+ */
+public final class WarmUp {
+    private static final List<Warmable> warmables = new ArrayList<>();
+    private static int initIterations = 0;
+    private static int disabledIterations = 0;
+    private static double disabledSecondsPerTick = 0.005;
+    private static int disabledDone = 0;
+    private static long[] iterationNanos = new long[0];
+    private static int iterationsDone = 0;
+
+    private WarmUp() {}
+
+    /**
+     * @param initIterations         Iterations to run in robotInit
+     * @param disabledIterations     Iterations to run over disabledPeriodic
+     *                               ticks, after those in robotInit
+     * @param disabledSecondsPerTick Time to spend per disabledPeriodic tick
+     */
+    public static void configure(int initIterations, int disabledIterations, double disabledSecondsPerTick) {
+        WarmUp.initIterations = initIterations;
+        WarmUp.disabledIterations = disabledIterations;
+        WarmUp.disabledSecondsPerTick = disabledSecondsPerTick;
+        iterationNanos = new long[initIterations + disabledIterations];
+    }
+
+    /**
+     * Adds a control path to warm up. Each iteration runs every registered
+     * warmable once, in registration order.
+     */
+    public static void register(Warmable warmable) {
+        warmables.add(warmable);
+    }
+
+    /**
+     * Runs the robotInit iterations and prints a summary. Called by
+     * CommandRobotBase.
+     */
+    public static void runInit() {
+        if (initIterations == 0 || warmables.isEmpty()) return;
+        long start = System.nanoTime();
+        run(initIterations);
+        System.out.printf("WarmUp: %d iterations in robotInit took %.0fms%n", initIterations, (System.nanoTime() - start) / 1e6);
+        report();
+    }
+
+    /**
+     * Runs as many of the remaining disabled iterations as fit in
+     * disabledSecondsPerTick, and prints a summary after the last one. Called
+     * by CommandRobotBase every disabledPeriodic.
+     */
+    public static void runDisabledTick() {
+        if (disabledDone >= disabledIterations || warmables.isEmpty()) return;
+        long deadline = System.nanoTime() + (long) (disabledSecondsPerTick * 1e9);
+        MotorWriteCoalescer.setOutputInhibited(true);
+        try {
+            while (disabledDone < disabledIterations && System.nanoTime() < deadline) {
+                iterate();
+                disabledDone++;
+            }
+        } finally {
+            MotorWriteCoalescer.setOutputInhibited(false);
+        }
+        if (disabledDone == disabledIterations) report();
+    }
+
+    private static void run(int iterations) {
+        MotorWriteCoalescer.setOutputInhibited(true);
+        try {
+            for (int i = 0; i < iterations; i++) iterate();
+        } finally {
+            MotorWriteCoalescer.setOutputInhibited(false);
+        }
+    }
+
+    private static void iterate() {
+        long start = System.nanoTime();
+        for (int i = 0; i < warmables.size(); i++) warmables.get(i).warmUp();
+        if (iterationsDone < iterationNanos.length) iterationNanos[iterationsDone++] = System.nanoTime() - start;
+    }
+
+    /**
+     * @return the time of each iteration run so far, in nanoseconds
+     */
+    public static long[] getIterationNanos() {
+        long[] nanos = new long[iterationsDone];
+        System.arraycopy(iterationNanos, 0, nanos, 0, iterationsDone);
+        return nanos;
+    }
+
+    /**
+     * @return whether every configured iteration has run
+     */
+    public static boolean isDone() {
+        return iterationsDone >= initIterations + disabledIterations || warmables.isEmpty();
+    }
+
+    /**
+     * Prints and publishes the mean iteration time of the first iteration and
+     * of successive power of ten sized blocks of iterations after it, eg.
+     * iterations 1-9, 10-99, 100-999.
+     */
+    private static void report() {
+        var line = new StringBuilder("WarmUp: mean iteration time");
+        int from = 0;
+        for (int to = 1; from < iterationsDone; to *= 10) {
+            int end = Math.min(to, iterationsDone);
+            long total = 0;
+            for (int i = from; i < end; i++) total += iterationNanos[i];
+            double mean = total / 1e3 / (end - from);
+            line.append(String.format(", %d-%d: %.1fus", from, end - 1, mean));
+            SmartDashboard.putNumber("WarmUp/iterations " + from + "-" + (end - 1) + " us", mean);
+            from = end;
+        }
+        System.out.println(line);
+    }
+}
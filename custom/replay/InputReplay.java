@@ -0,0 +1,575 @@
+package org.usfirst.frc4904.standard.custom.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * Records every input the robot code reads through standard's wrappers
+ * (CustomCommandJoystick, CustomCommandXbox, CustomCAN and so PDP and
+ * CANEncoder, NavX, CustomDigitalEncoder), tick by tick, to a compact binary
+ * log, and feeds them back in the same order when replaying the log with
+ * ReplayHarness on a desktop JVM. Motor outputs sent through
+ * MotorWriteCoalescer are recorded too, and checked against the log when
+ * replaying, so a replay shows whether the code still does exactly what it
+ * did on the field.
+ *
+ * Each input is a channel, registered once by name (eg. "NavX yaw"). Wrappers
+ * pass every value they read through value() or bytes(): while recording it is
+ * logged and returned, while replaying the logged value is returned instead,
+ * and otherwise the call returns the live value and does nothing else.
+ * CommandRobotBase marks each *Init and tick with the FPGA time, robot mode and
+ * Driver Station match state, so the harness can call them in the same order
+ * at the same (simulated) time.
+ *
+ * Only reads on the thread that started recording or replaying (the main
+ * robot thread) are recorded; reads on other threads are passed through.
+ * Recording does not allocate: records go into preallocated buffers that a
+ * background thread writes to disk about once a second and when the robot is
+ * disabled. The current buffer is only touched while holding the class lock,
+ * since the shutdown hook may stop recording while the main thread records.
+ *
+ * Log format, big endian: int magic, int version, then records, each a tag
+ * byte followed by
+ * - 'C' channel: short id, short length, UTF-8 name
+ * - 'I' *Init: byte mode, double time, byte alliance station
+ * - 'T' tick: byte mode, double time, double match time
+ * - 'D' double: short channel, double
+ * - 'B' boolean: short channel, byte
+ * - 'K' bytes: short channel, byte length (-1 when unavailable), bytes
+ * - 'O' output: short channel, double
+ */
+public final class InputReplay {
+    public enum State { OFF, RECORDING, REPLAYING }
+
+    // robot modes in 'I' and 'T' records
+    public static final byte DISABLED = 0;
+    public static final byte AUTONOMOUS = 1;
+    public static final byte TELEOP = 2;
+    public static final byte TEST = 3;
+    public static final byte ROBOT = 4;    // robotInit
+
+    static final byte CHANNEL = 'C';
+    static final byte INIT = 'I';
+    static final byte TICK = 'T';
+    static final byte DOUBLE = 'D';
+    static final byte BOOLEAN = 'B';
+    static final byte BYTES = 'K';
+    static final byte OUTPUT = 'O';
+
+    private static final int MAGIC = 0x34393034;    // "4904"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_BUFFERS = 64;
+    private static final double FLUSH_PERIOD = 1;    // seconds
+    private static final int MAX_REPORTED = 20;    // divergences printed in full
+
+    private static volatile State state = State.OFF;
+    private static Thread mainThread;
+    private static final List<String> channelNames = new ArrayList<>();
+    private static final Map<String, Short> channelIds = new HashMap<>();
+    private static long ticks = 0;
+
+    // recording
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+    private static final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(MAX_BUFFERS);
+    private static final BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<>(MAX_BUFFERS + 1);
+    private static int allocatedBuffers = 0;
+    private static ByteBuffer buffer;
+    private static Thread writer;
+    private static Thread shutdownHook;    // while recording
+    private static Path recording;
+    private static int channelsWritten = 0;
+    private static double lastFlush = 0;
+
+    // replaying
+    private static ByteBuffer log;
+    private static short[] localChannels;    // recorded channel id -> channel id in this run
+    private static final Marker marker = new Marker();
+    private static long replayedReads = 0;
+    private static long divergedReads = 0;
+    private static long skippedRecords = 0;
+    private static long checkedOutputs = 0;
+    private static long mismatchedOutputs = 0;
+
+    private InputReplay() {}
+
+    /**
+     * An 'I' or 'T' record being replayed. Reused.
+     */
+    static final class Marker {
+        boolean init;
+        byte mode;
+        double time;
+        double matchTime;
+        byte allianceStation;
+    }
+
+    /**
+     * @return the id of the channel with the given name, registering it if it
+     *         is new. Channels with the same name share an id. Call once, when
+     *         constructing the wrapper.
+     */
+    public static synchronized short channel(String name) {
+        Short id = channelIds.get(name);
+        if (id != null) return id;
+        if (channelNames.size() >= Short.MAX_VALUE) throw new IllegalStateException("Too many InputReplay channels");
+        short newId = (short) channelNames.size();
+        channelNames.add(name);
+        channelIds.put(name, newId);
+        return newId;
+    }
+
+    private static synchronized String channelName(short channel) {
+        return channel >= 0 && channel < channelNames.size() ? channelNames.get(channel) : "unknown channel " + channel;
+    }
+
+    public static State getState() {
+        return state;
+    }
+
+    public static boolean isReplaying() {
+        return state == State.REPLAYING;
+    }
+
+    private static boolean active() {
+        return state != State.OFF && Thread.currentThread() == mainThread;
+    }
+
+    /**
+     * Records or replays a double input.
+     *
+     * @param live The value read from the hardware
+     * @return live, or the recorded value when replaying
+     */
+    public static double value(short channel, double live) {
+        if (!active()) return live;
+        if (state != State.REPLAYING) {    // recording, unless stopped since; see record()
+            record(DOUBLE, channel, live);
+            return live;
+        }
+        return expect(DOUBLE, channel) ? log.getDouble() : live;
+    }
+
+    /**
+     * Records or replays a boolean input (eg. a button).
+     */
+    public static boolean value(short channel, boolean live) {
+        if (!active()) return live;
+        if (state != State.REPLAYING) {    // recording, unless stopped since; see record()
+            record(channel, live);
+            return live;
+        }
+        return expect(BOOLEAN, channel) ? log.get() != 0 : live;
+    }
+
+    /**
+     * Records or replays a message of up to 127 bytes (eg. a CAN frame).
+     *
+     * @param live The message read, or null if there was none
+     * @return live, or a copy of the recorded message (or null) when replaying
+     */
+    public static byte[] bytes(short channel, byte[] live) {
+        if (!active()) return live;
+        if (state != State.REPLAYING) {    // recording, unless stopped since; see record()
+            int length = live == null ? -1 : live.length;
+            if (length > Byte.MAX_VALUE) throw new IllegalArgumentException("InputReplay messages are limited to 127 bytes");
+            record(channel, live);
+            return live;
+        }
+        if (!expect(BYTES, channel)) return live;
+        int length = log.get();
+        if (length < 0) return null;
+        byte[] recorded = new byte[length];
+        log.get(recorded);
+        return recorded;
+    }
+
+    /**
+     * Records an output sent to hardware, or checks it against the recorded
+     * one when replaying.
+     */
+    public static void output(short channel, double value) {
+        if (!active()) return;
+        if (state != State.REPLAYING) {    // recording, unless stopped since; see record()
+            record(OUTPUT, channel, value);
+            return;
+        }
+        if (!expect(OUTPUT, channel)) return;
+        double recorded = log.getDouble();
+        checkedOutputs++;
+        if (Double.doubleToLongBits(recorded) != Double.doubleToLongBits(value)) {
+            if (mismatchedOutputs++ < MAX_REPORTED) {
+                System.err.printf("InputReplay: tick %d: %s was %s, recorded %s%n", ticks, channelName(channel), value, recorded);
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a tick. Called by CommandRobotBase before anything
+     * else in each *Periodic.
+     *
+     * @param mode DISABLED, AUTONOMOUS, TELEOP or TEST
+     * @param time The FPGA time, in seconds
+     */
+    public static void beginTick(byte mode, double time) {
+        if (!active()) return;
+        ticks++;
+        if (state != State.RECORDING) return;
+        double matchTime = DriverStation.getMatchTime();
+        synchronized (InputReplay.class) {
+            if (state != State.RECORDING) return;
+            writeChannels();
+            if (time - lastFlush >= FLUSH_PERIOD) {
+                lastFlush = time;
+                handOff();
+            }
+            reserve(18);
+            buffer.put(TICK).put(mode).putDouble(time).putDouble(matchTime);
+        }
+    }
+
+    /**
+     * Marks the start of an *Init. Called by CommandRobotBase before anything
+     * else in robotInit and each mode's *Init. Entering disabled writes out
+     * everything recorded so far.
+     *
+     * @param mode ROBOT, DISABLED, AUTONOMOUS, TELEOP or TEST
+     * @param time The FPGA time, in seconds
+     */
+    public static void beginInit(byte mode, double time) {
+        if (!active()) return;
+        ticks++;
+        if (state != State.RECORDING) return;
+        byte allianceStation = allianceStation();
+        synchronized (InputReplay.class) {
+            if (state != State.RECORDING) return;
+            writeChannels();
+            reserve(11);
+            buffer.put(INIT).put(mode).putDouble(time).put(allianceStation);
+            if (mode == DISABLED) handOff();
+        }
+    }
+
+    /**
+     * @return the ordinal of the AllianceStationID: 0 unknown, 1-3 red, 4-6 blue
+     */
+    private static byte allianceStation() {
+        var alliance = DriverStation.getAlliance();
+        var location = DriverStation.getLocation();
+        if (alliance.isEmpty() || location.isEmpty()) return 0;
+        return (byte) ((alliance.get() == DriverStation.Alliance.Red ? 0 : 3) + location.getAsInt());
+    }
+
+    // ---- recording ----
+
+    /**
+     * Starts recording to a new log under the operating directory's replays/
+     * folder. Call from the main robot thread before robotInit (eg. in the
+     * Robot constructor) to record the whole run.
+     */
+    public static void startRecording() {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".replay";
+        try {
+            startRecording(Filesystem.getOperatingDirectory().toPath().resolve("replays").resolve(name));
+        } catch (IOException e) {
+            System.err.println("InputReplay: could not start recording to " + name);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts recording to path, on the calling thread.
+     */
+    public static synchronized void startRecording(Path path) throws IOException {
+        if (state != State.OFF) throw new IllegalStateException("InputReplay is already " + state.name().toLowerCase());
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        while (allocatedBuffers < 2) {
+            freeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+            allocatedBuffers++;
+        }
+        buffer = freeBuffers.poll();
+        buffer.putInt(MAGIC).putInt(VERSION);
+        channelsWritten = 0;
+        ticks = 0;
+        lastFlush = 0;
+        recording = path;
+        mainThread = Thread.currentThread();
+        writer = new Thread(() -> write(file), "InputReplay");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(InputReplay::stopRecording, "InputReplay shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        state = State.RECORDING;
+        System.out.println("InputReplay: recording to " + path);
+    }
+
+    /**
+     * Writes out everything recorded and closes the log. Call from the main
+     * robot thread (it is also called on shutdown).
+     */
+    public static synchronized void stopRecording() {
+        if (state != State.RECORDING) return;
+        state = State.OFF;
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down; the hook will find recording stopped
+            }
+        }
+        shutdownHook = null;
+        handOff();
+        fullBuffers.add(CLOSE);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("InputReplay: recorded " + ticks + " ticks to " + recording);
+    }
+
+    // the record methods are synchronized with stopRecording(), and check that it has not run since the caller checked the state
+
+    private static synchronized void record(byte tag, short channel, double value) {
+        if (state != State.RECORDING) return;
+        reserve(11);
+        buffer.put(tag).putShort(channel).putDouble(value);
+    }
+
+    private static synchronized void record(short channel, boolean value) {
+        if (state != State.RECORDING) return;
+        reserve(4);
+        buffer.put(BOOLEAN).putShort(channel).put((byte) (value ? 1 : 0));
+    }
+
+    private static synchronized void record(short channel, byte[] message) {
+        if (state != State.RECORDING) return;
+        int length = message == null ? -1 : message.length;
+        reserve(4 + Math.max(length, 0));
+        buffer.put(BYTES).putShort(channel).put((byte) length);
+        if (message != null) buffer.put(message);
+    }
+
+    /**
+     * Call holding the class lock.
+     */
+    private static void writeChannels() {
+        for (; channelsWritten < channelNames.size(); channelsWritten++) {
+            byte[] name = channelNames.get(channelsWritten).getBytes(StandardCharsets.UTF_8);
+            reserve(5 + name.length);
+            buffer.put(CHANNEL).putShort((short) channelsWritten).putShort((short) name.length).put(name);
+        }
+    }
+
+    /**
+     * Call holding the class lock.
+     */
+    private static void reserve(int bytes) {
+        if (buffer.remaining() < bytes) handOff();
+    }
+
+    /**
+     * Passes the current buffer to the writer thread and takes an empty one,
+     * allocating another if the writer is behind. Call holding the class lock.
+     */
+    private static void handOff() {
+        if (buffer.position() == 0) return;
+        fullBuffers.add(buffer);
+        buffer = freeBuffers.poll();
+        if (buffer != null) return;
+        if (allocatedBuffers < MAX_BUFFERS) {
+            System.err.println("InputReplay: log writer is behind, allocating another buffer");
+            allocatedBuffers++;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            return;
+        }
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    private static void write(FileChannel file) {
+        boolean failed = false;
+        try (file) {
+            while (true) {
+                ByteBuffer full = fullBuffers.take();
+                if (full == CLOSE) break;
+                full.flip();
+                try {
+                    while (!failed && full.hasRemaining()) file.write(full);
+                } catch (IOException e) {
+                    failed = true;
+                    System.err.println("InputReplay: could not write " + recording + "; no longer recording");
+                    e.printStackTrace();
+                }
+                full.clear();
+                freeBuffers.add(full);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---- replaying ----
+
+    /**
+     * Loads a log to replay, on the calling thread. Used by ReplayHarness.
+     */
+    static synchronized void startReplay(Path path) throws IOException {
+        if (state != State.OFF) throw new IllegalStateException("InputReplay is already " + state.name().toLowerCase());
+        log = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (log.remaining() < 8 || log.getInt() != MAGIC) throw new IOException(path + " is not an InputReplay log");
+        int version = log.getInt();
+        if (version != VERSION) throw new IOException(path + " is version " + version + ", expected " + VERSION);
+        // map the recorded channels to this run's ids, by name
+        localChannels = new short[0];
+        for (int position = log.position(); position < log.limit(); position += recordLength(position)) {
+            if (log.get(position) != CHANNEL) continue;
+            short recordedId = log.getShort(position + 1);
+            byte[] name = new byte[log.getShort(position + 3)];
+            log.get(position + 5, name);
+            if (recordedId >= localChannels.length) {
+                short[] grown = new short[Math.max(recordedId + 1, localChannels.length * 2)];
+                Arrays.fill(grown, (short) -1);
+                System.arraycopy(localChannels, 0, grown, 0, localChannels.length);
+                localChannels = grown;
+            }
+            localChannels[recordedId] = channel(new String(name, StandardCharsets.UTF_8));
+        }
+        ticks = 0;
+        replayedReads = divergedReads = skippedRecords = checkedOutputs = mismatchedOutputs = 0;
+        mainThread = Thread.currentThread();
+        state = State.REPLAYING;
+    }
+
+    static synchronized void stopReplay() {
+        state = State.OFF;
+        log = null;
+    }
+
+    private static int recordLength(int position) {
+        switch (log.get(position)) {
+            case CHANNEL: return 5 + log.getShort(position + 3);
+            case INIT: return 11;
+            case TICK: return 18;
+            case DOUBLE: case OUTPUT: return 11;
+            case BOOLEAN: return 4;
+            case BYTES: return 4 + Math.max(log.get(position + 3), 0);
+            default: throw new IllegalStateException("Corrupt InputReplay log at byte " + position);
+        }
+    }
+
+    private static void skipChannels() {
+        while (log.hasRemaining() && log.get(log.position()) == CHANNEL) log.position(log.position() + recordLength(log.position()));
+    }
+
+    /**
+     * Moves past the next record's header if it is tag on channel. Otherwise
+     * the code read something it did not read when recording; the read gets
+     * its live value and the log stays where it is.
+     */
+    private static boolean expect(byte tag, short channel) {
+        skipChannels();
+        int position = log.position();
+        if (position + 3 <= log.limit() && log.get(position) == tag) {
+            short recorded = log.getShort(position + 1);
+            if (recorded >= 0 && recorded < localChannels.length && localChannels[recorded] == channel) {
+                log.position(position + 3);
+                replayedReads++;
+                return true;
+            }
+        }
+        if (divergedReads++ < MAX_REPORTED) {
+            System.err.printf("InputReplay: tick %d: %s was not read here when recording%n", ticks, channelName(channel));
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next 'I' or 'T' record and reads it into the marker,
+     * skipping (and counting) any recorded reads the code did not make.
+     *
+     * @return the marker, or null at the end of the log
+     */
+    static Marker nextMarker() {
+        while (log.hasRemaining()) {
+            int position = log.position();
+            byte tag = log.get(position);
+            if (tag == INIT || tag == TICK) {
+                marker.init = tag == INIT;
+                marker.mode = log.get(position + 1);
+                marker.time = log.getDouble(position + 2);
+                if (marker.init) marker.allianceStation = log.get(position + 10);
+                else marker.matchTime = log.getDouble(position + 10);
+                log.position(position + recordLength(position));
+                return marker;
+            }
+            if (tag != CHANNEL && skippedRecords++ < MAX_REPORTED) {
+                short recorded = log.getShort(position + 1);
+                System.err.printf("InputReplay: tick %d: %s was recorded but not read%n", ticks,
+                    recorded < localChannels.length ? channelName(localChannels[recorded]) : "unknown channel " + recorded);
+            }
+            log.position(position + recordLength(position));
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of *Init and ticks recorded or replayed
+     */
+    public static long getTicks() {
+        return ticks;
+    }
+
+    public static long getReplayedReads() {
+        return replayedReads;
+    }
+
+    /**
+     * @return reads made while replaying that were not recorded at that point
+     */
+    public static long getDivergedReads() {
+        return divergedReads;
+    }
+
+    /**
+     * @return recorded reads that were not made while replaying
+     */
+    public static long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    public static long getCheckedOutputs() {
+        return checkedOutputs;
+    }
+
+    /**
+     * @return outputs that differed from the recorded ones
+     */
+    public static long getMismatchedOutputs() {
+        return mismatchedOutputs;
+    }
+}
@@ -0,0 +1,122 @@
+package org.usfirst.frc4904.standard.custom.replay;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+
+import org.usfirst.frc4904.standard.CommandRobotBase;
+
+import edu.wpi.first.hal.AllianceStationID;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * Re-runs robot code from an InputReplay log on a desktop JVM (simulation
+ * HAL), as fast as it can: the FPGA clock is paused and stepped to each
+ * recorded time, the Driver Station state is set from the log, and robotInit,
+ * each *Init and each *Periodic are called in the recorded order. Inputs read
+ * through standard's wrappers return the recorded values, and every motor
+ * output is checked against the recorded one.
+ *
+ * Run with the robot class and the log, eg. from a desktop run configuration:
+ * ReplayHarness frc.robot.Robot 20250301-142210.replay, or call run() from a
+ * test. Code that reads hardware some other way (vendor motor controller
+ * signals, raw DriverStation or GenericHID calls) sees simulated values
+ * instead, and will diverge if it depends on them.
+ */
+public final class ReplayHarness {
+    private ReplayHarness() {}
+
+    /**
+     * Replays log on a robot built by robotFactory, and prints a summary.
+     *
+     * @return whether every output matched and every recorded input was read
+     *         in the same order
+     */
+    public static boolean run(Supplier<? extends CommandRobotBase> robotFactory, Path log) throws IOException {
+        HAL.initialize(500, 0);
+        SimHooks.pauseTiming();
+        DriverStation.silenceJoystickConnectionWarning(true);
+        InputReplay.startReplay(log);
+        long start = System.nanoTime();
+        double firstTime = Double.NaN;
+        double lastTime = Double.NaN;
+        try {
+            CommandRobotBase robot = robotFactory.get();
+            for (InputReplay.Marker marker = InputReplay.nextMarker(); marker != null; marker = InputReplay.nextMarker()) {
+                if (Double.isNaN(firstTime)) firstTime = marker.time;
+                lastTime = marker.time;
+                double step = marker.time - Timer.getFPGATimestamp();
+                if (step > 0) SimHooks.stepTiming(step);
+                setDriverStation(marker);
+                call(robot, marker);
+            }
+        } finally {
+            InputReplay.stopReplay();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("ReplayHarness: %d ticks, %.1fs of robot time in %.1fs (%.0fx)%n", InputReplay.getTicks(),
+            lastTime - firstTime, seconds, (lastTime - firstTime) / seconds);
+        System.out.printf("ReplayHarness: %d reads replayed, %d not recorded, %d recorded but not read%n",
+            InputReplay.getReplayedReads(), InputReplay.getDivergedReads(), InputReplay.getSkippedRecords());
+        System.out.printf("ReplayHarness: %d outputs checked, %d differed%n", InputReplay.getCheckedOutputs(),
+            InputReplay.getMismatchedOutputs());
+        return InputReplay.getMismatchedOutputs() == 0 && InputReplay.getDivergedReads() == 0
+            && InputReplay.getSkippedRecords() == 0;
+    }
+
+    private static void setDriverStation(InputReplay.Marker marker) {
+        boolean robotInit = marker.init && marker.mode == InputReplay.ROBOT;
+        DriverStationSim.setEnabled(!robotInit && marker.mode != InputReplay.DISABLED);
+        DriverStationSim.setAutonomous(marker.mode == InputReplay.AUTONOMOUS);
+        DriverStationSim.setTest(marker.mode == InputReplay.TEST);
+        if (marker.init) DriverStationSim.setAllianceStationId(AllianceStationID.values()[marker.allianceStation]);
+        else DriverStationSim.setMatchTime(marker.matchTime);
+        DriverStationSim.notifyNewData();
+    }
+
+    private static void call(CommandRobotBase robot, InputReplay.Marker marker) {
+        if (marker.init) {
+            switch (marker.mode) {
+                case InputReplay.ROBOT: robot.robotInit(); break;
+                case InputReplay.DISABLED: robot.disabledInit(); break;
+                case InputReplay.AUTONOMOUS: robot.autonomousInit(); break;
+                case InputReplay.TELEOP: robot.teleopInit(); break;
+                case InputReplay.TEST: robot.testInit(); break;
+                default: throw new IllegalStateException("Unknown robot mode " + marker.mode + " in InputReplay log");
+            }
+        } else {
+            switch (marker.mode) {
+                case InputReplay.DISABLED: robot.disabledPeriodic(); break;
+                case InputReplay.AUTONOMOUS: robot.autonomousPeriodic(); break;
+                case InputReplay.TELEOP: robot.teleopPeriodic(); break;
+                case InputReplay.TEST: robot.testPeriodic(); break;
+                default: throw new IllegalStateException("Unknown robot mode " + marker.mode + " in InputReplay log");
+            }
+        }
+    }
+
+    /**
+     * @param args The robot class name (with a public no argument constructor)
+     *             and the log to replay
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ReplayHarness <robot class> <log>");
+            System.exit(2);
+        }
+        Class<? extends CommandRobotBase> robotClass = Class.forName(args[0]).asSubclass(CommandRobotBase.class);
+        boolean identical = run(() -> {
+            try {
+                return robotClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Could not construct " + args[0], e);
+            }
+        }, Paths.get(args[1]));
+        System.exit(identical ? 0 : 1);
+    }
+}
@@ -1,17 +1,24 @@
 // WAS PID SOURCE
 package org.usfirst.frc4904.standard.custom.sensors;
 
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+
 import edu.wpi.first.wpilibj.CounterBase;
 import edu.wpi.first.wpilibj.DigitalSource;
 import edu.wpi.first.wpilibj.Encoder;
 
 /**
- * A RoboRIO encoder that implements the generic encoder class.
+ * A RoboRIO encoder that implements the generic encoder class. Distance, rate,
+ * direction and stopped are read through InputReplay.
  *
  */
 public class CustomDigitalEncoder extends Encoder implements CustomEncoder {
 	private double distancePerPulse;
 	private boolean reverseDirection;
+	private final short distanceChannel = InputReplay.channel("Encoder " + getFPGAIndex() + " distance");
+	private final short rateChannel = InputReplay.channel("Encoder " + getFPGAIndex() + " rate");
+	private final short directionChannel = InputReplay.channel("Encoder " + getFPGAIndex() + " direction");
+	private final short stoppedChannel = InputReplay.channel("Encoder " + getFPGAIndex() + " stopped");
 
 	public CustomDigitalEncoder(DigitalSource aSource, DigitalSource bSource) {
 		super(aSource, bSource);
@@ -78,6 +85,26 @@ public class CustomDigitalEncoder extends Encoder implements CustomEncoder {
 		this.reverseDirection = reverseDirection;
 	}
 
+	@Override
+	public double getDistance() {
+		return InputReplay.value(distanceChannel, super.getDistance());
+	}
+
+	@Override
+	public double getRate() {
+		return InputReplay.value(rateChannel, super.getRate());
+	}
+
+	@Override
+	public boolean getDirection() {
+		return InputReplay.value(directionChannel, super.getDirection());
+	}
+
+	@Override
+	public boolean getStopped() {
+		return InputReplay.value(stoppedChannel, super.getStopped());
+	}
+
 	@Override
 	public double getDistanceSafely() {
 		return getDistance();
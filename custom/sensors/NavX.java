@@ -1,12 +1,15 @@
 // WAS PID SOURCE
 package org.usfirst.frc4904.standard.custom.sensors;
 
+import org.usfirst.frc4904.standard.custom.replay.InputReplay;
+
 import com.studica.frc.AHRS;
 import edu.wpi.first.wpilibj.I2C;
 import edu.wpi.first.wpilibj.SerialPort;
 
 /**
- * Local NavX interface.
+ * Local NavX interface. Yaw, yaw rate, pitch and roll are read through
+ * InputReplay.
  *
  */
 public class NavX extends AHRS implements IMU {
@@ -17,9 +20,17 @@ public class NavX extends AHRS implements IMU {
     protected int getYawCalls;
     protected static final double MAX_DEGREES_PER_TICK = 90.0;
     protected static final double MAX_DEGREES_PER_SECOND_PER_TICK = 180;
+    private final short yawChannel;
+    private final short rateChannel;
+    private final short pitchChannel;
+    private final short rollChannel;
 
     public NavX(NavXComType port) {
         super(port);
+        yawChannel = InputReplay.channel("NavX " + port + " yaw");
+        rateChannel = InputReplay.channel("NavX " + port + " rate");
+        pitchChannel = InputReplay.channel("NavX " + port + " pitch");
+        rollChannel = InputReplay.channel("NavX " + port + " roll");
         super.zeroYaw();
         lastYaw = 0.0f;
         lastPitch = 0.0f;
@@ -29,7 +40,7 @@ public class NavX extends AHRS implements IMU {
 
     @Override
     public double getRate() {
-        double rate = super.getRate();
+        double rate = InputReplay.value(rateChannel, super.getRate());
         if (Math.abs(rate - lastYawRate) > NavX.MAX_DEGREES_PER_SECOND_PER_TICK) {
             return lastYawRate;
         }
@@ -41,7 +52,7 @@ public class NavX extends AHRS implements IMU {
      * Returns an always positive yaw. Ignores anomalous values
      */
     public float getSafeYaw() {
-        float yaw = super.getYaw();
+        float yaw = readYaw();
         // SmartDashboard.putNumber("navx_yaw", yaw);
         // SmartDashboard.putNumber("navx_last_yaw", lastYaw);
         if ((Math.abs(yaw - lastYaw) > NavX.MAX_DEGREES_PER_TICK)
@@ -55,7 +66,11 @@ public class NavX extends AHRS implements IMU {
     @Override
     public float getYaw() {
         getYawCalls += 1;
-        return super.getYaw();
+        return readYaw();
+    }
+
+    private float readYaw() {
+        return (float) InputReplay.value(yawChannel, super.getYaw());
     }
 
     /**
@@ -63,7 +78,7 @@ public class NavX extends AHRS implements IMU {
      */
     @Override
     public float getPitch() {
-        float pitch = super.getPitch();
+        float pitch = (float) InputReplay.value(pitchChannel, super.getPitch());
         if (Math.abs(pitch - lastPitch) > NavX.MAX_DEGREES_PER_TICK) {
             return lastPitch;
         }
@@ -81,7 +96,7 @@ public class NavX extends AHRS implements IMU {
      */
     @Override
     public float getRoll() {
-        float roll = super.getRoll();
+        float roll = (float) InputReplay.value(rollChannel, super.getRoll());
         if (Math.abs(roll - lastRoll) > NavX.MAX_DEGREES_PER_TICK) {
             return lastRoll;
         }
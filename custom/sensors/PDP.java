@@ -31,7 +31,7 @@ public class PDP {
 	protected double cachedPower;
 	protected long lastRead;
 	private static final long MAX_AGE = 100; // How long to keep the last CAN message before throwing an error
-												// (milliseconds)
+												// (milliseconds, FPGA time so that InputReplay replays it)
 
 	/**
 	 * PDP constructor
@@ -98,8 +98,8 @@ public class PDP {
 					cachedChannelCurrents[i + (status - 1) * 6] = tempCurrents[i];
 				}
 			}
-			lastRead = System.currentTimeMillis();
-		} else if (System.currentTimeMillis() - lastRead > PDP.MAX_AGE) {
+			lastRead = RobotController.getFPGATime() / 1000;
+		} else if (RobotController.getFPGATime() / 1000 - lastRead > PDP.MAX_AGE) {
 			throw new InvalidSensorException("Can not read voltage from PDP");
 		}
 	}
@@ -115,8 +115,8 @@ public class PDP {
 			cachedPower = (((rawArray[1] & 0x0F) << 12) | (rawArray[2] << 4) | ((rawArray[4] & 0xF0) >> 4)) * 0.125;
 			cachedEnergy = (((rawArray[4] & 0x0F) << 24) | (rawArray[5] << 16) | (rawArray[6] << 8) | (rawArray[7]))
 					* 0.000125 * rawArray[0];
-			lastRead = System.currentTimeMillis();
-		} else if (System.currentTimeMillis() - lastRead > PDP.MAX_AGE) {
+			lastRead = RobotController.getFPGATime() / 1000;
+		} else if (RobotController.getFPGATime() / 1000 - lastRead > PDP.MAX_AGE) {
 			throw new InvalidSensorException("Can not read energy from PDP");
 		}
 	}
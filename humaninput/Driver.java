@@ -6,6 +6,11 @@ import org.usfirst.frc4904.standard.custom.ChassisController;
  * Driver specific version of HumanInterface. Also designed to be passed around
  * to control the chassis.
  *
+ * Response curves, slew limits and radial deadzones are best set on the
+ * controllers (setAxisShaper, setStickShaper) in the constructor, so getX,
+ * getY and getTurnSpeed read shaped values from the HumanInputSnapshot; an
+ * AxisShaper can also be applied here, once per tick.
+ *
  */
 public abstract class Driver extends HumanInput implements ChassisController {
 
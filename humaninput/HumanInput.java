@@ -6,6 +6,10 @@ import org.usfirst.frc4904.standard.custom.Nameable;
  * A generic human interface class. This is designed to be used to bind commands
  * to controllers. bindCommands should only be called during teleop init.
  *
+ * Read controllers through CustomCommandJoystick and CustomCommandXbox, whose
+ * accessors return the HumanInputSnapshot taken at the start of the tick, so
+ * every reader sees the same values within a tick.
+ *
  */
 public abstract class HumanInput implements Nameable {
 
@@ -0,0 +1,69 @@
+package org.usfirst.frc4904.standard.humaninput;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads every controller once per tick. CommandRobotBase calls capture() at
+ * the start of each *Init and *Periodic; each registered controller
+ * (CustomCommandJoystick, CustomCommandXbox) then reads all of its axes and
+ * buttons from the Driver Station, applies its deadzone, and keeps the results
+ * in primitive arrays that its accessors return until the next capture. So
+ * every command, Driver and Operator reading a stick in the same tick sees the
+ * same value, and the HID layer is only called once per input per tick.
+ *
+ * Until capture() is first called (eg. in robotInit, or on a robot base other
+ * than CommandRobotBase) the snapshot is not live, and controllers capture
+ * themselves on every read instead, so they never return stale values.
+ *
+ * Main robot thread only.
+ */
+public final class HumanInputSnapshot {
+    /**
+     * A controller that keeps a snapshot of its inputs.
+     */
+    public interface Source {
+        /**
+         * Reads every input into the snapshot.
+         */
+        void capture();
+    }
+
+    private static final List<Source> sources = new ArrayList<>();
+    private static long captures = 0;
+
+    private HumanInputSnapshot() {}
+
+    /**
+     * Adds a controller to capture every tick, and captures it now so it
+     * never reads as all zero. Called by the controllers' constructors.
+     */
+    public static void register(Source source) {
+        sources.add(source);
+        source.capture();
+    }
+
+    /**
+     * Captures every registered controller. Called by CommandRobotBase.
+     */
+    public static void capture() {
+        for (int i = 0; i < sources.size(); i++) sources.get(i).capture();
+        captures++;
+    }
+
+    /**
+     * @return whether capture() is being called, so controllers can read their
+     *         snapshot
+     */
+    public static boolean isLive() {
+        return captures > 0;
+    }
+
+    /**
+     * @return the number of snapshots taken, eg. to tell whether a value was
+     *         read in this tick
+     */
+    public static long getCaptures() {
+        return captures;
+    }
+}
@@ -0,0 +1,281 @@
+package org.usfirst.frc4904.standard.subsystems.motor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.usfirst.frc4904.standard.custom.profiling.LoopProfiler;
+import org.usfirst.frc4904.standard.custom.sensors.InvalidSensorException;
+import org.usfirst.frc4904.standard.custom.sensors.PDP;
+import org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers.SpeedModifier;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+
+/**
+ * Robot-wide brownout protection. Replaces AccelerationCap's per-motor voltage
+ * heuristic with a battery model shared by every motor subsystem.
+ *
+ * Every tick the governor fits the battery as an open circuit voltage behind an
+ * internal resistance (V = Voc - R * I) from the PDP's total current and
+ * voltage, then predicts the voltage the robot would sag to if every budget got
+ * the output it asked for. The current that keeps the battery above
+ * minimumVoltage is split between budgets by priority, highest first, so a
+ * drivetrain at a lower priority cannot starve an arm at a higher one. Budgets
+ * with the same priority share what is left in proportion to their demand.
+ *
+ * Use createBudget() to get a SpeedModifier for each SmartMotorSubsystem, eg.
+ * new SmartMotorSubsystem("Arm", governor.createBudget("Arm", 2, 80, 4), motors).
+ * Each budget has its own ramp rate. Like any subsystem, the governor must be
+ * constructed once so the CommandScheduler calls periodic().
+ */
+public class PowerGovernor extends SubsystemBase {
+    public static final double DEFAULT_MINIMUM_VOLTAGE = 8.0;
+    public static final double DEFAULT_FORGETTING_FACTOR = 0.98;   // per tick; ~1 second memory at 50Hz
+    public static final double DEFAULT_RESISTANCE = 0.02;          // ohms, typical FRC battery + wiring
+    public static final double MIN_RESISTANCE = 0.005;
+    public static final double MAX_RESISTANCE = 0.1;
+    protected static final double MIN_CURRENT_VARIANCE = 4.0;      // A^2; below this the current did not change enough to fit R
+    protected static final double TIMEOUT_SECONDS = 0.5;           // same as AccelerationCap: budgets not called this long were disabled
+    private static final LoopProfiler.Entry PROFILE = LoopProfiler.entry("PowerGovernor.periodic()");
+
+    protected final PDP pdp;
+    protected final double minimumVoltage;
+    protected final double forgettingFactor;
+    protected final List<Budget> budgets = new ArrayList<>();
+    private Budget[] sortedBudgets = new Budget[0];
+
+    // exponentially weighted sums for the least squares fit of V against I
+    private double sumWeight;
+    private double sumCurrent;
+    private double sumVoltage;
+    private double sumCurrentSquared;
+    private double sumCurrentVoltage;
+
+    protected double resistance = DEFAULT_RESISTANCE;
+    protected double openCircuitVoltage = Double.NaN;
+    protected double measuredVoltage = Double.NaN;
+    protected double measuredCurrent;
+    protected double baselineCurrent;
+    protected double predictedVoltage = Double.NaN;
+    protected double availableCurrent = Double.POSITIVE_INFINITY;
+    protected boolean sensorValid;
+
+    /**
+     * @param pdp              The robot's power distribution panel, used to
+     *                         measure total current and battery voltage.
+     * @param minimumVoltage   Voltage the battery should not be predicted to sag
+     *                         below.
+     * @param forgettingFactor Weight kept by old samples each tick, in (0, 1).
+     *                         Lower adapts faster to a changing battery but is
+     *                         noisier.
+     */
+    public PowerGovernor(PDP pdp, double minimumVoltage, double forgettingFactor) {
+        super();
+        this.pdp = pdp;
+        this.minimumVoltage = minimumVoltage;
+        this.forgettingFactor = forgettingFactor;
+        setName("PowerGovernor");
+    }
+
+    /**
+     * @param pdp The robot's power distribution panel, used to measure total
+     *            current and battery voltage.
+     */
+    public PowerGovernor(PDP pdp) {
+        this(pdp, DEFAULT_MINIMUM_VOLTAGE, DEFAULT_FORGETTING_FACTOR);
+    }
+
+    /**
+     * Creates a budget to use as (or in a group with) the SpeedModifier of a
+     * SmartMotorSubsystem.
+     *
+     * @param name          Name of the budget, for telemetry
+     * @param priority      Higher priorities get current first
+     * @param peakCurrent   Current drawn by the whole subsystem at full output
+     *                      from rest, in amps (eg. stall current times motor
+     *                      count, or the configured current limit); must be
+     *                      positive. Output is assumed to draw current
+     *                      proportionally.
+     * @param rampPerSecond Maximum increase in output magnitude per second; use
+     *                      Double.POSITIVE_INFINITY to not ramp
+     * @return the budget
+     */
+    public Budget createBudget(String name, int priority, double peakCurrent, double rampPerSecond) {
+        // a budget that draws nothing would get a limit of remaining / 0 (NaN once nothing remains)
+        if (!(peakCurrent > 0)) throw new IllegalArgumentException("PowerGovernor budget " + name + " peakCurrent must be positive");
+        var budget = new Budget(name, priority, peakCurrent, rampPerSecond);
+        budgets.add(budget);
+        sortedBudgets = budgets.toArray(new Budget[0]);
+        Arrays.sort(sortedBudgets, (a, b) -> Integer.compare(b.priority, a.priority));
+        return budget;
+    }
+
+    @Override
+    public void periodic() {
+        long start = System.nanoTime();
+        update();
+        PROFILE.stop(start);
+    }
+
+    private void update() {
+        double now = Timer.getFPGATimestamp();
+        double governedCurrent = 0;
+        for (Budget budget : sortedBudgets) {
+            if (now - budget.lastUpdate > TIMEOUT_SECONDS) budget.requested = 0;
+            governedCurrent += budget.getDrawnCurrent();
+        }
+        try {
+            measuredVoltage = pdp.getVoltageSafely();
+            measuredCurrent = pdp.getTotalCurrentSafely();
+            sensorValid = true;
+        } catch (InvalidSensorException e) {
+            sensorValid = false;
+        }
+        if (!sensorValid) {
+            // without measurements, fall back to ramping only
+            availableCurrent = Double.POSITIVE_INFINITY;
+            predictedVoltage = Double.NaN;
+            for (Budget budget : sortedBudgets) budget.limit = 1;
+            return;
+        }
+        updateModel(measuredCurrent, measuredVoltage);
+        // current not drawn by governed subsystems (compressor, electronics, ungoverned motors)
+        baselineCurrent = Math.max(0, measuredCurrent - governedCurrent);
+        availableCurrent = Math.max(0, (openCircuitVoltage - minimumVoltage) / resistance - baselineCurrent);
+        allocate();
+    }
+
+    /**
+     * Adds a (current, voltage) sample to the exponentially weighted least
+     * squares fit of V = Voc - R * I.
+     */
+    protected void updateModel(double current, double voltage) {
+        sumWeight = sumWeight * forgettingFactor + 1;
+        sumCurrent = sumCurrent * forgettingFactor + current;
+        sumVoltage = sumVoltage * forgettingFactor + voltage;
+        sumCurrentSquared = sumCurrentSquared * forgettingFactor + current * current;
+        sumCurrentVoltage = sumCurrentVoltage * forgettingFactor + current * voltage;
+        double meanCurrent = sumCurrent / sumWeight;
+        double meanVoltage = sumVoltage / sumWeight;
+        double currentVariance = sumCurrentSquared / sumWeight - meanCurrent * meanCurrent;
+        if (currentVariance > MIN_CURRENT_VARIANCE) {
+            double covariance = sumCurrentVoltage / sumWeight - meanCurrent * meanVoltage;
+            resistance = Math.max(MIN_RESISTANCE, Math.min(MAX_RESISTANCE, -covariance / currentVariance));
+        }
+        // anchor the line at the latest sample so a slowly discharging battery is tracked immediately
+        openCircuitVoltage = voltage + resistance * current;
+    }
+
+    /**
+     * Splits availableCurrent between budgets by priority and predicts the
+     * voltage for the requested outputs.
+     */
+    protected void allocate() {
+        double requestedCurrent = 0;
+        for (Budget budget : sortedBudgets) requestedCurrent += budget.getDemandCurrent();
+        predictedVoltage = openCircuitVoltage - resistance * (baselineCurrent + requestedCurrent);
+        double remaining = availableCurrent;
+        int i = 0;
+        while (i < sortedBudgets.length) {
+            // find the budgets sharing this priority
+            int end = i;
+            double demand = 0;
+            while (end < sortedBudgets.length && sortedBudgets[end].priority == sortedBudgets[i].priority) {
+                demand += sortedBudgets[end].getDemandCurrent();
+                end++;
+            }
+            double share = demand <= remaining ? 1 : remaining / demand;
+            for (int j = i; j < end; j++) sortedBudgets[j].limit = Math.min(1, Math.abs(sortedBudgets[j].requested) * share);
+            remaining -= Math.min(demand, remaining);
+            i = end;
+        }
+        // hand out what is left as headroom, again by priority, so outputs can rise before the next tick
+        for (Budget budget : sortedBudgets) {
+            double extra = Math.min(1 - budget.limit, remaining / budget.peakCurrent);
+            budget.limit += extra;
+            remaining -= extra * budget.peakCurrent;
+        }
+    }
+
+    /**
+     * @return fitted battery internal resistance, in ohms
+     */
+    public double getResistance() { return resistance; }
+
+    /**
+     * @return fitted battery open circuit voltage, or NaN before the first
+     *         measurement
+     */
+    public double getOpenCircuitVoltage() { return openCircuitVoltage; }
+
+    /**
+     * @return predicted battery voltage if every budget got its requested
+     *         output, or NaN when the PDP cannot be read
+     */
+    public double getPredictedVoltage() { return predictedVoltage; }
+
+    /**
+     * @return current that can be drawn by governed subsystems without sagging
+     *         below minimumVoltage, in amps
+     */
+    public double getAvailableCurrent() { return availableCurrent; }
+
+    /**
+     * A per-subsystem share of the governor's current budget. Ramps the output
+     * magnitude up at rampPerSecond (decreases are immediate) and caps it to
+     * what the governor allocated last tick.
+     */
+    public class Budget implements SpeedModifier {
+        public final String name;
+        public final int priority;
+        public final double peakCurrent;
+        public final double rampPerSecond;
+        protected double requested;
+        protected double output;
+        protected double limit = 1;
+        protected double lastUpdate = Double.NEGATIVE_INFINITY;
+
+        protected Budget(String name, int priority, double peakCurrent, double rampPerSecond) {
+            this.name = name;
+            this.priority = priority;
+            this.peakCurrent = peakCurrent;
+            this.rampPerSecond = rampPerSecond;
+        }
+
+        @Override
+        public double modify(double speed) {
+            double now = Timer.getFPGATimestamp();
+            double deltaTime = now - lastUpdate;
+            lastUpdate = now;
+            // if we have not been called in a while we were probably disabled, so ramp up from zero
+            if (deltaTime > TIMEOUT_SECONDS) output = 0;
+            requested = Math.max(-1, Math.min(1, speed));
+            double target = requested;
+            if (Math.abs(target) > Math.abs(output) || Math.signum(target) != Math.signum(output)) {
+                // only ramp increases in magnitude; reversing direction ramps up from zero
+                double start = Math.signum(target) == Math.signum(output) ? Math.abs(output) : 0;
+                double magnitude = Math.min(Math.abs(target), start + rampPerSecond * Math.max(0, deltaTime));
+                target = Math.copySign(magnitude, target);
+            }
+            output = Math.max(-limit, Math.min(limit, target));
+            return output;
+        }
+
+        /**
+         * @return current this budget would draw at its requested output, in
+         *         amps
+         */
+        public double getDemandCurrent() { return Math.abs(requested) * peakCurrent; }
+
+        /**
+         * @return estimated current drawn at the last output, in amps
+         */
+        public double getDrawnCurrent() { return Math.abs(output) * peakCurrent; }
+
+        /**
+         * @return maximum output magnitude allocated by the governor, in [0, 1]
+         */
+        public double getLimit() { return limit; }
+    }
+}
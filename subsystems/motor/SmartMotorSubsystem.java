@@ -1,23 +1,41 @@
 package org.usfirst.frc4904.standard.subsystems.motor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.function.DoubleSupplier;
 
+import org.usfirst.frc4904.standard.commands.CommandPool;
+import org.usfirst.frc4904.standard.commands.ReusableCommand;
+import org.usfirst.frc4904.standard.custom.Warmable;
+import org.usfirst.frc4904.standard.custom.motorcontrollers.MotorSignal;
+import org.usfirst.frc4904.standard.custom.motorcontrollers.MotorWriteCoalescer;
 import org.usfirst.frc4904.standard.custom.motorcontrollers.SmartMotorController;
+import org.usfirst.frc4904.standard.custom.motorcontrollers.StatusSignalUsage;
 import org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers.IdentityModifier;
 import org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers.SpeedModifier;
+import org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers.SpeedModifierPipeline;
 
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 
 
-public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotorController> extends SubsystemBase {    // generic to allow inherited class (eg. TalonMotorSubsystem) to directly use TalonMotorController APIs on super.motors (not possible if this.motors here was BrakeableMotorController)
+public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotorController> extends SubsystemBase implements Warmable {    // generic to allow inherited class (eg. TalonMotorSubsystem) to directly use TalonMotorController APIs on super.motors (not possible if this.motors here was BrakeableMotorController)
     public static final int DEFAULT_PID_SLOT = 0;   // default slot for pid constants
     public static final int DEFAULT_DMP_SLOT = 0;   // default slot for dynamic motion profile (motionmagic or smartmotion) configuration
 
     protected final MotorControllerType[] motors;
+    protected final MotorWriteCoalescer[] writers;  // one per motor, same order; skips redundant set/setVoltage writes
+    protected final List<EnumSet<MotorSignal>> consumedSignals;    // by motor index; null if not declared, in which case rates are left at vendor defaults
+    protected boolean followMode = false;   // whether motors[0] leads and the rest follow it, see configFollowMode
+    protected boolean[] opposeLead;         // by motor index, for follow mode
+    protected boolean followStale = false;  // whether follow mode was cleared (eg. by neutralOutput) and must be re-sent before the next output
+    protected int[] followResets;           // by motor index, each follower's getResetCount() when follow mode was last sent
 	protected final SpeedModifier speedModifier;    // NOTE: maybe change to be called PowerModifier
 	protected final String name;
+	private final CommandPool<OutputCommand> outputCommands = new CommandPool<>(OutputCommand::new);
 
     /**
      * A class that wraps around a variable number of BrakeableMotorController
@@ -28,7 +46,8 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      * @param name          The name for the motor
      * @param speedModifier A SpeedModifier changes the input to every motor based
      *                      on some factor. The default is an IdentityModifier,
-     *                      which does not affect anything.
+     *                      which does not affect anything. Compiled into a
+     *                      SpeedModifierPipeline.
      * @param motors        The MotorControllers in this subsystem. Can be a single
      *                      MotorController or multiple MotorControllers.
      */
@@ -38,11 +57,14 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
 		super();
 		setName(name);
 		this.name = name;
-		this.speedModifier = speedModifier;
+		this.speedModifier = SpeedModifierPipeline.compile(speedModifier);
 		this.motors = motors;
-		for (var motor : motors) {
-			motor.set(0);
+		this.writers = new MotorWriteCoalescer[motors.length];
+		for (int i = 0; i < motors.length; i++) {
+			writers[i] = new MotorWriteCoalescer(name + " motor " + i, motors[i]);
+			writers[i].set(0);
 		}
+		this.consumedSignals = new ArrayList<>(Collections.nCopies(motors.length, null));
     }
 
 	/**
@@ -95,7 +117,11 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
 	/**
 	 * Disables the motor with underlying .disable()
 	 */
-	public void disable() { for (var motor : motors) motor.disable(); }
+	public void disable() {
+		for (var motor : motors) motor.disable();
+		invalidateWrites();
+		followStale = followMode;
+	}
 
 	/**
 	 * Stops the motor with underlying stopMotor()
@@ -103,19 +129,183 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
 	 * In theory this should stop the motor without disabling, but wpilib seems
 	 * to just call disable under the hood.
 	 */
-	public void stopMotor() { for (var motor : motors) motor.stopMotor(); }
+	public void stopMotor() {
+		for (var motor : motors) motor.stopMotor();
+		invalidateWrites();
+		followStale = followMode;
+	}
+
+	/// FOLLOW MODE
+	/**
+	 * Make motors[0] the lead motor and every other motor follow it on the
+	 * controller, so output is only sent to the lead motor. Follow mode is
+	 * cleared by neutralOutput(), disable() and stopMotor() (which still go to
+	 * every motor) and by a follower resetting (eg. in a brownout), and is
+	 * re-sent automatically before the next output.
+	 *
+	 * @param opposeLead For each motor after the first, whether it should spin
+	 *                   opposite to the lead motor. Omit to follow in the same
+	 *                   direction.
+	 */
+	public void configFollowMode(boolean... opposeLead) {
+		if (opposeLead.length != 0 && opposeLead.length != motors.length - 1) {
+			throw new IllegalArgumentException("configFollowMode needs one opposeLead per follow motor (" + (motors.length - 1) + "), got " + opposeLead.length);
+		}
+		this.opposeLead = new boolean[motors.length];
+		this.followResets = new int[motors.length];
+		for (int i = 1; i < motors.length && opposeLead.length != 0; i++) this.opposeLead[i] = opposeLead[i - 1];
+		followMode = motors.length > 1;
+		followStale = followMode;
+		ensureFollowing();
+	}
+
+	/**
+	 * Re-sends follow mode to every follow motor if it was cleared or a
+	 * follower has reset since it was sent (follow mode is not persisted). All
+	 * follow requests go out back to back, before the lead motor's next
+	 * output. Does nothing while output is inhibited (eg. during WarmUp), as
+	 * checking for resets talks to the controllers.
+	 */
+	protected void ensureFollowing() {
+		if (MotorWriteCoalescer.isOutputInhibited()) return;
+		if (followMode && !followStale) {
+			for (int i = 1; i < motors.length; i++) {
+				if (motors[i].getResetCount() != followResets[i]) followStale = true;
+			}
+		}
+		if (!followStale) return;
+		for (int i = 1; i < motors.length; i++) {
+			followResets[i] = motors[i].getResetCount();
+			motors[i].follow(motors[0], opposeLead[i]);
+			writers[i].invalidate();
+		}
+		followStale = false;
+	}
+
+	/**
+	 * @return how many motors (from the start of motors[]) output is sent to:
+	 *         only the lead motor in follow mode
+	 */
+	protected int outputMotorCount() {
+		return followMode ? 1 : motors.length;
+	}
+
+	/**
+	 * Forget the last power/voltage written to each motor, so the next set() or
+	 * setVoltage() is sent even if it is the same. Call after changing motor
+	 * outputs without going through this subsystem.
+	 */
+	public void invalidateWrites() { for (var writer : writers) writer.invalidate(); }
+
+	/**
+	 * @return the number of redundant motor writes skipped, summed over motors
+	 */
+	public long getSuppressedWrites() {
+		long total = 0;
+		for (var writer : writers) total += writer.getSuppressedWrites();
+		return total;
+	}
+
+	/// STATUS SIGNALS
+	/**
+	 * Declare the status signals read from the lead motor (motors[0]) and from
+	 * the other motors. Call applyStatusSignalRates() to slow down the rest.
+	 *
+	 * @param lead      Signals read from motors[0]
+	 * @param followers Signals read from every other motor, often none
+	 */
+	public void declareConsumedSignals(EnumSet<MotorSignal> lead, EnumSet<MotorSignal> followers) {
+		for (int i = 0; i < motors.length; i++) consumedSignals.set(i, EnumSet.copyOf(i == 0 ? lead : followers));
+	}
+
+	/**
+	 * Declare the status signals read from one motor.
+	 *
+	 * @param motorIndex Index of the motor in the order it was passed to the
+	 *                   constructor
+	 * @param signals    Signals read from it
+	 */
+	public void declareConsumedSignals(int motorIndex, EnumSet<MotorSignal> signals) {
+		consumedSignals.set(motorIndex, EnumSet.copyOf(signals));
+	}
+
+	/**
+	 * Sets the status signal rates of every motor with declared signals: the
+	 * consumed ones at their rate, the rest slowed down or disabled.
+	 */
+	public void applyStatusSignalRates() {
+		for (int i = 0; i < motors.length; i++) {
+			var signals = consumedSignals.get(i);
+			if (signals == null) continue;
+			// follow motors follow the lead motor's applied output frames
+			if (i == 0 && followMode) {
+				signals = EnumSet.copyOf(signals);
+				signals.add(MotorSignal.APPLIED_OUTPUT);
+			}
+			motors[i].setStatusSignalRates(signals);
+		}
+	}
+
+	/**
+	 * Runs dryRunTick (eg. one execute() of each command using this subsystem,
+	 * or the robot's periodic function) while recording which signals are read
+	 * from each motor, and checks them against the declared signals. Prints any
+	 * mismatch and the estimated bus utilization.
+	 *
+	 * @return false if a signal was read that was not declared, which would be
+	 *         stale once applyStatusSignalRates() is called
+	 */
+	public boolean verifyConsumedSignals(Runnable dryRunTick) {
+		StatusSignalUsage.startRecording();
+		try {
+			dryRunTick.run();
+		} finally {
+			StatusSignalUsage.stopRecording();
+		}
+		boolean ok = true;
+		for (int i = 0; i < motors.length; i++) {
+			EnumSet<MotorSignal> used = StatusSignalUsage.getUsed(motors[i]);
+			EnumSet<MotorSignal> declared = consumedSignals.get(i);
+			if (declared == null) continue;
+			EnumSet<MotorSignal> undeclared = EnumSet.copyOf(used);
+			undeclared.removeAll(declared);
+			EnumSet<MotorSignal> unused = EnumSet.copyOf(declared);
+			unused.removeAll(used);
+			if (!undeclared.isEmpty()) {
+				ok = false;
+				System.err.println(getName() + " motor " + i + " reads undeclared signals " + undeclared);
+			}
+			if (!unused.isEmpty()) System.out.println(getName() + " motor " + i + " declares signals not read in the dry run " + unused);
+		}
+		System.out.printf("%s status frames: %.1f%% of CAN bus, %.1f%% with vendor defaults%n", getName(),
+			estimateBusUtilization() * 100, StatusSignalUsage.busUtilization(StatusSignalUsage.estimateFramesPerSecond(null) * motors.length) * 100);
+		return ok;
+	}
+
+	/**
+	 * @return estimated fraction of the CAN bus used by this subsystem's status
+	 *         frames with the declared signals (vendor defaults for motors
+	 *         without declared signals)
+	 */
+	public double estimateBusUtilization() {
+		double frames = 0;
+		for (var signals : consumedSignals) frames += StatusSignalUsage.estimateFramesPerSecond(signals);
+		return StatusSignalUsage.busUtilization(frames);
+	}
 
 	// if you implement a .get() to get the power, make sure you update it in setVoltage() too (eg. with voltage/RobotController.getBatteryVoltage())
 
 	/**
-	 * Set the motor power. Passes through SpeedModifier.
+	 * Set the motor power. Passes through SpeedModifier. Writes equal to the
+	 * last one are skipped, except for a periodic refresh.
 	 *
 	 * @param power The power to set. Value should be between -1.0 and 1.0.
 	 */
 	public void set(double power) {
 		// LogKitten.v("Motor " + getName() + " @ " + power);
 		double newPower = speedModifier.modify(power);
-		for (var motor : motors) motor.set(newPower);
+		ensureFollowing();
+		for (int i = 0; i < outputMotorCount(); i++) writers[i].set(newPower);
 	}
     
     /**
@@ -127,6 +317,24 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
         set(power);
     }
 
+	/**
+	 * Runs set() and setVoltage() over a sweep of outputs ending at zero, for
+	 * WarmUp. Nothing is sent, and the writes are forgotten afterwards.
+	 * Stateful speed modifiers (eg. AccelerationCap) see the sweep too.
+	 */
+	@Override
+	public void warmUp() {
+		if (!MotorWriteCoalescer.isOutputInhibited()) {
+			throw new IllegalStateException("SmartMotorSubsystem " + name + " can only be warmed up by WarmUp");
+		}
+		// ensureFollowing() does nothing while output is inhibited, so no follow requests are sent
+		for (double power = -1; power <= 1; power += 0.25) set(power);
+		set(0);
+		setVoltage(6);
+		setVoltage(0);
+		invalidateWrites();
+	}
+
 	/**
 	 * Set the motor voltages with the underlying setVoltage(). 
 	 *
@@ -135,13 +343,13 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      * 
 	 * NOTE FROM BASE CLASS: This function *must* be called regularly in order
 	 * for voltage compensation to work properly - unlike the ordinary set
-	 * function, it is not "set it and forget it."
+	 * function, it is not "set it and forget it." Repeated equal voltages are
+	 * only resent every MotorWriteCoalescer refresh period.
 	 */
     public void setVoltage(double voltage) {
 		// LogKitten.v("Motor " + getName() + " @ " + voltage + "v");
-        for (var motor : motors) {
-            motor.setVoltage(voltage);
-        }
+        ensureFollowing();
+        for (int i = 0; i < outputMotorCount(); i++) writers[i].setVoltage(voltage);
     }
     /**
      * Sets the neutral output mode to brake. Motor will continue to run, but
@@ -161,7 +369,11 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      *
      * Uses the underlying .neutralOutput() method.
      */
-    public void neutralOutput() { for (var motor : motors) motor.neutralOutput(); }
+    public void neutralOutput() {
+        for (var motor : motors) motor.neutralOutput();
+        invalidateWrites();
+        followStale = followMode;
+    }
     
     /**
      * Enables brake mode on and brakes each motor.
@@ -235,6 +447,65 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      */
     public final Command c_holdVoltage(double voltage) { return this.run(() -> this.setVoltage(voltage)); }
 
+    /**
+     * Reusable power/voltage command, for the c_borrow* factories.
+     */
+    public final class OutputCommand extends ReusableCommand {
+        private double value;
+        private boolean voltage;
+        private boolean hold;
+
+        private OutputCommand() {
+            super("OutputCommand");
+            addRequirements(SmartMotorSubsystem.this);
+        }
+
+        /**
+         * @param value   Power in [-1, 1], or voltage
+         * @param voltage Whether value is a voltage
+         * @param hold    Whether to keep setting it until interrupted, rather
+         *                than setting it once and ending
+         */
+        public OutputCommand set(double value, boolean voltage, boolean hold) {
+            this.value = value;
+            this.voltage = voltage;
+            this.hold = hold;
+            return this;
+        }
+
+        private void apply() {
+            if (voltage) setVoltage(value);
+            else setPower(value);
+        }
+
+        @Override
+        public void initialize() { if (!hold) apply(); }
+
+        @Override
+        public void execute() { if (hold) apply(); }
+
+        @Override
+        public boolean isFinished() { return !hold; }
+    }
+
+    /**
+     * Like c_setPower(), but from a CommandPool instead of allocated, for
+     * commands created while running (eg. in a CreateAndDisown). The command is
+     * borrowed: schedule it right away and do not keep it, since it is reused
+     * once it ends.
+     */
+    public final OutputCommand c_borrowSetPower(double power) { return outputCommands.acquire().set(power, false, false); }
+
+    /**
+     * Like c_holdPower(), borrowed from a CommandPool; see c_borrowSetPower().
+     */
+    public final OutputCommand c_borrowHoldPower(double power) { return outputCommands.acquire().set(power, false, true); }
+
+    /**
+     * Like c_holdVoltage(), borrowed from a CommandPool; see c_borrowSetPower().
+     */
+    public final OutputCommand c_borrowHoldVoltage(double voltage) { return outputCommands.acquire().set(voltage, true, true); }
+
     /**
      * Enables brake mode on and brakes each motor. Command version of brake().
      *
@@ -282,13 +553,32 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      * Plumbing/unified interface for using dynamic motion profiling features
      */
     /**
-     * Should be a thin wrapper around the motor-controller-specific method to
-     * set a dynamicmotionprofile setpoint (motionmagic or smartmotion).
+     * Configure the on-controller motion profile (Motion Magic or MAXMotion) of
+     * every motor. See SmartMotorController.configDynamicMotionProfile.
+     */
+    public void configDynamicMotionProfile(double cruiseVelocityRPS, double accelerationRPSPS, double kP, double kI, double kD, double kV) {
+        for (var motor : motors) motor.configDynamicMotionProfile(cruiseVelocityRPS, accelerationRPSPS, kP, kI, kD, kV);
+    }
+
+    /**
+     * Start moving every motor to a position with the on-controller motion
+     * profile.
      *
-     * Make sure to convert units from motor shaft rotations (passed from here)
-     * to whatever the internal method uses.
+     * @param rotations Target position, in motor shaft rotations
      */
-    // protected abstract void setDynamicMotionProfileTargetRotations(double rotations);
+    public void setDynamicMotionProfileTargetRotations(double rotations) {
+        ensureFollowing();
+        for (int i = 0; i < outputMotorCount(); i++) motors[i].setDynamicMotionProfileTargetRotations(rotations);
+        invalidateWrites();
+    }
+
+    /**
+     * @return distance of the lead motor (motors[0]) from the dynamic motion
+     *         profile target, in rotations
+     */
+    public double getDynamicMotionProfileErrorRotations() {
+        return motors[0].getDynamicMotionProfileErrorRotations();
+    }
     /**
      * Should be a thin wrapper around the encoder position getter.
      *
@@ -303,40 +593,58 @@ public abstract class SmartMotorSubsystem<MotorControllerType extends SmartMotor
      * PID to a setpoint, while monitoring the progress and ending itself when
      * we arrive (when we have been within errorRange (rotations) for
      * holdTimeCondition (ms)).
+     *
+     * Arrival uses the controller's own closed loop error (one signal read per
+     * tick), not a position polled and compared in Java.
      */
     public class HardwareDMPUntilArrival extends Command {
         private SmartMotorSubsystem<MotorControllerType> motorSubsys;
         private double target;
         private double errorRangeRotations;
-        private double holdTimeCondition;
+        private double holdTimeCondition;  // seconds
         private double recentOffPositionTime = Double.POSITIVE_INFINITY;    // start at infinity so that checks of "now() - recentOffPositionTime > holdTimeConditionMs" never succeed before initalization
         public HardwareDMPUntilArrival(SmartMotorSubsystem<MotorControllerType> smartMotorSubsystem, double targetPosRotations, double errorRangeRotations, double holdTimeConditionMs) {
             this.target = targetPosRotations;
             this.motorSubsys = smartMotorSubsystem;
             this.errorRangeRotations = errorRangeRotations;
-            this.holdTimeCondition = holdTimeConditionMs;
+            this.holdTimeCondition = holdTimeConditionMs / 1000.0;
             addRequirements(this.motorSubsys);
         }
         public HardwareDMPUntilArrival(SmartMotorSubsystem<MotorControllerType> smartMotorSubsystem, double targetPosRotations) {
-            this(smartMotorSubsystem, targetPosRotations, 1/90, 100);
+            this(smartMotorSubsystem, targetPosRotations, 1.0/90, 100);
         }
 
-        // @Override
-        // public void initialize() {
-        //     this.motorSubsys.setDynamicMotionProfileTargetRotations(DEFAULT_DMP_SLOT);
-        // }
-        // @Override
-        // public void execute() {
-        //     if (Math.abs(this.motorSubsys.getSensorPositionRotations() - target) < errorRangeRotations) {
-        //         recentOffPositionTime = Timer.getFPGATimestamp();
-        //     }
-        // }
+        @Override
+        public void initialize() {
+            this.motorSubsys.setDynamicMotionProfileTargetRotations(target);
+            recentOffPositionTime = Timer.getFPGATimestamp();
+        }
+        @Override
+        public void execute() {
+            // NaN (no target yet) also counts as off position
+            if (!(Math.abs(this.motorSubsys.getDynamicMotionProfileErrorRotations()) <= errorRangeRotations)) {
+                recentOffPositionTime = Timer.getFPGATimestamp();
+            }
+        }
         @Override
         public boolean isFinished() {
             return Timer.getFPGATimestamp() - recentOffPositionTime > holdTimeCondition;    // finished = whether (the last time we were off position) was long enough ago
         }
     }
 
+    /**
+     * Move to a position with the on-controller motion profile, ending once the
+     * lead motor has been within 1/90 rotation of it for 100ms. Call
+     * configDynamicMotionProfile first.
+     *
+     * @param targetPosRotations Target position, in motor shaft rotations
+     *
+     * @return Command to be scheduled or triggered, eg. button1.onTrue(motor.c_hardwareDMPUntilArrival(10))
+     */
+    public final Command c_hardwareDMPUntilArrival(double targetPosRotations) {
+        return new HardwareDMPUntilArrival(this, targetPosRotations);
+    }
+
     // deprecate the set-and-forget commands, because commands should not end before the motor is in a "stop" state
     // @Deprecated public abstract Command c_setRPM(double setpoint);
     // @Deprecated public abstract Command c_setPosition(double setpoint);
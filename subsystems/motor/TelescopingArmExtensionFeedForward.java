@@ -70,7 +70,7 @@ public class TelescopingArmExtensionFeedForward {
      * simultaneously-achievable velocity constraint.
      */
     public double minAchievableVelocity(double maxVoltage, double posRads, double acceleration) {
-        return elevFF.maxAchievableVelocity(maxVoltage, acceleration) - Math.sin(posRads) * kg_vertical / kv;
+        return elevFF.minAchievableVelocity(maxVoltage, acceleration) - Math.sin(posRads) * kg_vertical / kv;
     }
     /**
      * Calculates the maximum achievable acceleration given a maximum voltage
@@ -40,7 +40,7 @@ public class TelescopingArmPivotFeedForward {
         this.extended_kg = extended_kg;
         this.armFF = new ArmFeedforward(ks, 0, kv, ka); // passes zero for kg because we will do our own kg calculations and add the result externally
     }
-    private double lerpedCg(double param) {
+    protected double lerpedCg(double param) {
         // You could pass something outside of [0, 1] here, it would just assume
         // the arm can extend in the other direction (and the cg still moves
         // linearly) or more than originally specified. The assumption of a
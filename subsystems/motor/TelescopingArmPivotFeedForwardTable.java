@@ -0,0 +1,220 @@
+package org.usfirst.frc4904.standard.subsystems.motor;
+
+/**
+ * A TelescopingArmPivotFeedForward that looks up the gravity term from a
+ * precomputed (extension ratio x angle) table instead of calling Math.cos and
+ * the cg lerp on every call. Useful when calculate() or the
+ * maxAchievable*() bounds are called in inner loops, eg. when constraining
+ * motion profiles.
+ *
+ * Every output of the arm feedforward is affine in the gravity term
+ * (lerpedCg(extension) * cos(angle)), so only that term is tabulated; the
+ * velocity and acceleration bounds are derived from the interpolated gravity
+ * term with the same arithmetic WPILib's ArmFeedforward uses. Inputs outside
+ * of the table range fall back to the analytic model.
+ */
+public class TelescopingArmPivotFeedForwardTable extends TelescopingArmPivotFeedForward {
+    public static final double DEFAULT_MIN_ANGLE = -Math.PI;
+    public static final double DEFAULT_MAX_ANGLE = Math.PI;
+    // cg is linear in extension, so a single extension step is already exact;
+    // the angle axis is where the interpolation error comes from
+    public static final int DEFAULT_EXTENSION_STEPS = 1;
+    private static final int MAX_ANGLE_STEPS = 1 << 16;
+
+    public final int extensionSteps;
+    public final int angleSteps;
+    public final double minAngle;
+    public final double maxAngle;
+    private final double extensionInvStep;
+    private final double angleInvStep;
+    private final int stride;
+    private final double[] gravityTable;
+
+    /**
+     * Tabulated arm pivot feedforward with an explicit table resolution.
+     *
+     * @param retracted_kg   Gravity gain when the arm is not (0.0) extended.
+     * @param extended_kg    Gravity gain when the arm is fully (1.0) extended.
+     * @param ks             Static gain.
+     * @param kv             Velocity gain.
+     * @param ka             Acceleration gain.
+     * @param extensionSteps Number of table cells along the extension ratio
+     *                       axis, which spans [0, 1].
+     * @param angleSteps     Number of table cells along the angle axis.
+     * @param minAngle       Lowest tabulated angle, in radians from horizontal.
+     * @param maxAngle       Highest tabulated angle, in radians from horizontal.
+     */
+    public TelescopingArmPivotFeedForwardTable(double retracted_kg, double extended_kg, double ks, double kv, double ka,
+            int extensionSteps, int angleSteps, double minAngle, double maxAngle) {
+        super(retracted_kg, extended_kg, ks, kv, ka);
+        if (extensionSteps < 1 || angleSteps < 1) {
+            throw new IllegalArgumentException("Feedforward table needs at least one cell along each axis");
+        }
+        if (!(maxAngle > minAngle)) {
+            throw new IllegalArgumentException("Feedforward table maxAngle " + maxAngle + " must be greater than minAngle " + minAngle);
+        }
+        this.extensionSteps = extensionSteps;
+        this.angleSteps = angleSteps;
+        this.minAngle = minAngle;
+        this.maxAngle = maxAngle;
+        this.extensionInvStep = extensionSteps;
+        this.angleInvStep = angleSteps / (maxAngle - minAngle);
+        this.stride = angleSteps + 1;
+        this.gravityTable = new double[(extensionSteps + 1) * stride];
+        for (int i = 0; i <= extensionSteps; i++) {
+            double cg = lerpedCg((double) i / extensionSteps);
+            for (int j = 0; j <= angleSteps; j++) {
+                gravityTable[i * stride + j] = cg * Math.cos(minAngle + (maxAngle - minAngle) * j / angleSteps);
+            }
+        }
+    }
+
+    /**
+     * Tabulated arm pivot feedforward over angles [-PI, PI], with an explicit
+     * table resolution.
+     *
+     * @see #TelescopingArmPivotFeedForwardTable(double, double, double, double, double, int, int, double, double)
+     */
+    public TelescopingArmPivotFeedForwardTable(double retracted_kg, double extended_kg, double ks, double kv, double ka,
+            int extensionSteps, int angleSteps) {
+        this(retracted_kg, extended_kg, ks, kv, ka, extensionSteps, angleSteps, DEFAULT_MIN_ANGLE, DEFAULT_MAX_ANGLE);
+    }
+
+    /**
+     * Builds a table that reproduces the analytic feedforward of analytic to
+     * within maxError (in the feedforward's units, eg. volts) over the given
+     * angle range. The angle resolution is picked from the linear
+     * interpolation error bound (h^2 / 8 * max|d^2/dangle^2|), then checked
+     * with validate() and refined if needed.
+     *
+     * @param analytic The feedforward to tabulate.
+     * @param maxError Maximum allowed deviation of calculate() from the
+     *                 analytic model.
+     * @param minAngle Lowest tabulated angle, in radians from horizontal.
+     * @param maxAngle Highest tabulated angle, in radians from horizontal.
+     * @return the tabulated feedforward
+     */
+    public static TelescopingArmPivotFeedForwardTable forErrorBound(TelescopingArmPivotFeedForward analytic,
+            double maxError, double minAngle, double maxAngle) {
+        if (!(maxError > 0)) {
+            throw new IllegalArgumentException("Feedforward table error bound must be positive, got " + maxError);
+        }
+        double maxKg = Math.max(Math.abs(analytic.retracted_kg), Math.abs(analytic.extended_kg));
+        int angleSteps = 1;
+        if (maxKg > 0) {
+            double step = Math.sqrt(8 * maxError / maxKg);
+            angleSteps = (int) Math.min(MAX_ANGLE_STEPS, Math.ceil((maxAngle - minAngle) / step));
+        }
+        while (true) {
+            var table = new TelescopingArmPivotFeedForwardTable(analytic.retracted_kg, analytic.extended_kg,
+                    analytic.ks, analytic.kv, analytic.ka, DEFAULT_EXTENSION_STEPS, Math.max(angleSteps, 1),
+                    minAngle, maxAngle);
+            if (table.validate(4).feedForward <= maxError || angleSteps >= MAX_ANGLE_STEPS) {
+                return table;
+            }
+            angleSteps = Math.min(angleSteps * 2, MAX_ANGLE_STEPS);
+        }
+    }
+
+    /**
+     * Builds a table over angles [-PI, PI] that reproduces analytic to within
+     * maxError.
+     *
+     * @see #forErrorBound(TelescopingArmPivotFeedForward, double, double, double)
+     */
+    public static TelescopingArmPivotFeedForwardTable forErrorBound(TelescopingArmPivotFeedForward analytic,
+            double maxError) {
+        return forErrorBound(analytic, maxError, DEFAULT_MIN_ANGLE, DEFAULT_MAX_ANGLE);
+    }
+
+    /**
+     * Bilinearly interpolated gravity term, lerpedCg(extension) * cos(angle).
+     */
+    protected double gravity(double extension, double angle) {
+        double u = extension * extensionInvStep;
+        double v = (angle - minAngle) * angleInvStep;
+        if (!(u >= 0 && u <= extensionSteps && v >= 0 && v <= angleSteps)) {
+            // outside of the table (or NaN), use the analytic model
+            return lerpedCg(extension) * Math.cos(angle);
+        }
+        int i = Math.min((int) u, extensionSteps - 1);
+        int j = Math.min((int) v, angleSteps - 1);
+        double fu = u - i;
+        double fv = v - j;
+        int k = i * stride + j;
+        double low = gravityTable[k] + (gravityTable[k + 1] - gravityTable[k]) * fv;
+        double high = gravityTable[k + stride] + (gravityTable[k + stride + 1] - gravityTable[k + stride]) * fv;
+        return low + (high - low) * fu;
+    }
+
+    @Override
+    public double calculate(double armExtensionRatio, double posRads, double velRadPerSec, double accelRadPerSecSquared) {
+        return ks * Math.signum(velRadPerSec) + kv * velRadPerSec + ka * accelRadPerSecSquared
+                + gravity(armExtensionRatio, posRads);
+    }
+
+    @Override
+    public double maxAchievableVelocity(double maxVoltage, double extension, double angle, double acceleration) {
+        return (maxVoltage - ks - acceleration * ka - gravity(extension, angle)) / kv;
+    }
+
+    @Override
+    public double minAchievableVelocity(double maxVoltage, double extension, double angle, double acceleration) {
+        return (-maxVoltage + ks - acceleration * ka - gravity(extension, angle)) / kv;
+    }
+
+    @Override
+    public double maxAchievableAcceleration(double maxVoltage, double extension, double angle, double velocity) {
+        return (maxVoltage - ks * Math.signum(velocity) - velocity * kv - gravity(extension, angle)) / ka;
+    }
+
+    /**
+     * Compares the table against the analytic model at samplesPerCell points
+     * along each axis of every table cell. Use an even samplesPerCell to hit
+     * the cell centers, where linear interpolation error peaks.
+     *
+     * @param samplesPerCell Number of samples along each axis of every cell.
+     * @return The maximum absolute deviation of calculate(), of the achievable
+     *         velocity bounds, and of the achievable acceleration bounds.
+     */
+    public Deviation validate(int samplesPerCell) {
+        samplesPerCell = Math.max(samplesPerCell, 1);
+        int extensionSamples = extensionSteps * samplesPerCell;
+        int angleSamples = angleSteps * samplesPerCell;
+        double maxGravityError = 0;
+        for (int i = 0; i <= extensionSamples; i++) {
+            double extension = (double) i / extensionSamples;
+            double cg = lerpedCg(extension);
+            for (int j = 0; j <= angleSamples; j++) {
+                double angle = minAngle + (maxAngle - minAngle) * j / angleSamples;
+                double error = Math.abs(gravity(extension, angle) - cg * Math.cos(angle));
+                maxGravityError = Math.max(maxGravityError, error);
+            }
+        }
+        return new Deviation(maxGravityError,
+                kv == 0 ? Double.POSITIVE_INFINITY : maxGravityError / kv,
+                ka == 0 ? Double.POSITIVE_INFINITY : maxGravityError / ka);
+    }
+
+    /**
+     * Maximum deviations of the table from the analytic model, as reported by
+     * validate(). The velocity (acceleration) deviation is infinite when kv
+     * (ka) is zero, because the analytic bound is too.
+     */
+    public static class Deviation {
+        public final double feedForward;
+        public final double velocity;
+        public final double acceleration;
+
+        public Deviation(double feedForward, double velocity, double acceleration) {
+            this.feedForward = feedForward;
+            this.velocity = velocity;
+            this.acceleration = acceleration;
+        }
+
+        @Override
+        public String toString() {
+            return "feedforward: " + feedForward + ", velocity: " + velocity + ", acceleration: " + acceleration;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers;
 
 // import org.usfirst.frc4904.standard.LogKitten;
-import org.usfirst.frc4904.standard.Util;
 import org.usfirst.frc4904.standard.custom.sensors.InvalidSensorException;
 import org.usfirst.frc4904.standard.custom.sensors.PDP;
 
@@ -9,7 +8,12 @@ import org.usfirst.frc4904.standard.custom.sensors.PDP;
  * A SpeedModifier that does brownout protection and voltage ramping. This is
  * designed to reduce power consumption (via voltage ramping) and prevent
  * RoboRIO/router brownouts.
+ *
+ * @deprecated Use a PowerGovernor budget, which models the battery instead of
+ *             extrapolating voltage samples and ramps each subsystem
+ *             separately.
  */
+@Deprecated
 public class AccelerationCap implements SpeedModifier {
 	public final static double MAXIMUM_MOTOR_INCREASE_PER_SECOND = 2.0;
 	public final static double ANTI_BROWNOUT_BACKOFF_PER_SECOND = 2.4; // How much to throttle a motor down to avoid
@@ -79,8 +83,7 @@ public class AccelerationCap implements SpeedModifier {
 			}
 			return inputSpeed;
 		}
-		if (!new Util.Range(voltage - PDP.PDP_VOLTAGE_PRECISION, voltage + PDP.PDP_VOLTAGE_PRECISION)
-				.contains(newVoltage)) {
+		if (Math.abs(newVoltage - voltage) > PDP.PDP_VOLTAGE_PRECISION) {
 			lastVoltage = voltage;
 			voltage = newVoltage;
 		}
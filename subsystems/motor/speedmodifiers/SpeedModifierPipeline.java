@@ -0,0 +1,246 @@
+package org.usfirst.frc4904.standard.subsystems.motor.speedmodifiers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SpeedModifier chain flattened into a specialized pipeline. Nested
+ * SpeedModifierGroups are flattened, and runs of pure stateless stages
+ * (LinearModifier, CapSpeedModifier, IdentityModifier) are folded into a
+ * single scale-then-clamp, so a chain like Cap -> Linear -> Cap costs one
+ * multiply and one clamp with no interface calls. Other (stateful or unknown)
+ * stages, like AccelerationCap, are kept as is between the folded stages.
+ *
+ * Folding reorders floating point operations (eg. x * a * b becomes x * (a *
+ * b)), so outputs can differ from the unfolded chain in the last bits.
+ *
+ * Use compile() or the Builder; SmartMotorSubsystem compiles its modifier
+ * automatically.
+ */
+public abstract class SpeedModifierPipeline implements SpeedModifier {
+    /**
+     * Modify several speeds at once, eg. for every motor of a multi-motor
+     * subsystem. Equivalent to out[i] = modify(in[i]) in order of i, so
+     * stateful stages see one call per element. in and out may be the same
+     * array.
+     */
+    public abstract void modify(double[] in, double[] out);
+
+    /**
+     * Compiles a SpeedModifier (chain) into a pipeline.
+     *
+     * @param speedModifiers the modifiers to apply, in order
+     * @return the compiled pipeline
+     */
+    public static SpeedModifierPipeline compile(SpeedModifier... speedModifiers) {
+        if (speedModifiers.length == 1 && speedModifiers[0] instanceof SpeedModifierPipeline) {
+            return (SpeedModifierPipeline) speedModifiers[0];
+        }
+        var builder = new Builder();
+        for (SpeedModifier speedModifier : speedModifiers) builder.add(speedModifier);
+        return builder.build();
+    }
+
+    /**
+     * Builds a SpeedModifierPipeline by adding stages in order.
+     */
+    public static class Builder {
+        private final List<SpeedModifier> opaqueStages = new ArrayList<>();
+        // fused stage after each opaque stage; index 0 is the stage before the first opaque one
+        private final List<double[]> fusedStages = new ArrayList<>();
+        private double scale = 1;
+        private double min = Double.NEGATIVE_INFINITY;
+        private double max = Double.POSITIVE_INFINITY;
+
+        /**
+         * Appends a stage (or, for groups and pipelines, all of their stages).
+         */
+        public Builder add(SpeedModifier speedModifier) {
+            Class<?> type = speedModifier.getClass();
+            if (type == IdentityModifier.class) {
+                return this;
+            } else if (type == LinearModifier.class) {
+                return scale(((LinearModifier) speedModifier).scale);
+            } else if (type == CapSpeedModifier.class) {
+                var cap = ((CapSpeedModifier) speedModifier).speedCap;
+                return clamp(cap.getMin(), cap.getMax());
+            } else if (type == SpeedModifierGroup.class) {
+                for (SpeedModifier stage : ((SpeedModifierGroup) speedModifier).speedModifiers) add(stage);
+                return this;
+            } else if (speedModifier instanceof Pipeline) {
+                var pipeline = (Pipeline) speedModifier;
+                scale(pipeline.scale).clamp(pipeline.min, pipeline.max);
+                for (int i = 0; i < pipeline.stages.length; i++) {
+                    addOpaque(pipeline.stages[i]);
+                    scale(pipeline.stageScale[i]).clamp(pipeline.stageMin[i], pipeline.stageMax[i]);
+                }
+                return this;
+            } else if (speedModifier instanceof Fused) {
+                var fused = (Fused) speedModifier;
+                return scale(fused.scale).clamp(fused.min, fused.max);
+            }
+            return addOpaque(speedModifier);
+        }
+
+        /**
+         * Appends a multiplication by scale, like a LinearModifier.
+         */
+        public Builder scale(double factor) {
+            // factor * clamp(scale * x, min, max) == clamp(factor * scale * x, factor * min, factor * max), bounds swap if factor < 0
+            scale *= factor;
+            double scaledMin = min * factor;
+            double scaledMax = max * factor;
+            if (factor == 0) {
+                min = 0;
+                max = 0;
+            } else if (factor > 0) {
+                min = scaledMin;
+                max = scaledMax;
+            } else {
+                min = scaledMax;
+                max = scaledMin;
+            }
+            return this;
+        }
+
+        /**
+         * Appends a clamp to [clampMin, clampMax], like a CapSpeedModifier.
+         */
+        public Builder clamp(double clampMin, double clampMax) {
+            // clamp(clamp(v, min, max), clampMin, clampMax) == clamp(v, clamp(min), clamp(max))
+            double newMin = Math.max(Math.min(min, clampMax), clampMin);
+            double newMax = Math.max(Math.min(max, clampMax), clampMin);
+            min = newMin;
+            max = newMax;
+            return this;
+        }
+
+        private Builder addOpaque(SpeedModifier speedModifier) {
+            fusedStages.add(new double[] { scale, min, max });
+            opaqueStages.add(speedModifier);
+            scale = 1;
+            min = Double.NEGATIVE_INFINITY;
+            max = Double.POSITIVE_INFINITY;
+            return this;
+        }
+
+        public SpeedModifierPipeline build() {
+            if (opaqueStages.isEmpty()) return new Fused(scale, min, max);
+            int count = opaqueStages.size();
+            double[] stageScale = new double[count];
+            double[] stageMin = new double[count];
+            double[] stageMax = new double[count];
+            // the fused stage recorded with opaque stage i runs before it; shift so each opaque stage owns the one after it
+            for (int i = 0; i < count; i++) {
+                double[] after = i + 1 < count ? fusedStages.get(i + 1) : new double[] { scale, min, max };
+                stageScale[i] = after[0];
+                stageMin[i] = after[1];
+                stageMax[i] = after[2];
+            }
+            double[] first = fusedStages.get(0);
+            var stages = opaqueStages.toArray(new SpeedModifier[count]);
+            if (count == 1) return new FusedAround(first[0], first[1], first[2], stages[0], stageScale[0], stageMin[0], stageMax[0]);
+            return new Pipeline(first[0], first[1], first[2], stages, stageScale, stageMin, stageMax);
+        }
+    }
+
+    /**
+     * Only folded stateless stages: one scale and one clamp, no calls.
+     */
+    static final class Fused extends SpeedModifierPipeline {
+        final double scale;
+        final double min;
+        final double max;
+
+        Fused(double scale, double min, double max) {
+            this.scale = scale;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double modify(double speed) {
+            return Math.max(Math.min(speed * scale, max), min);
+        }
+
+        @Override
+        public void modify(double[] in, double[] out) {
+            for (int i = 0; i < in.length; i++) out[i] = Math.max(Math.min(in[i] * scale, max), min);
+        }
+    }
+
+    /**
+     * One opaque stage between two folded stages, the common case (eg. caps and
+     * scaling around an AccelerationCap).
+     */
+    static final class FusedAround extends SpeedModifierPipeline {
+        final double scale;
+        final double min;
+        final double max;
+        final SpeedModifier stage;
+        final double afterScale;
+        final double afterMin;
+        final double afterMax;
+
+        FusedAround(double scale, double min, double max, SpeedModifier stage, double afterScale, double afterMin,
+                double afterMax) {
+            this.scale = scale;
+            this.min = min;
+            this.max = max;
+            this.stage = stage;
+            this.afterScale = afterScale;
+            this.afterMin = afterMin;
+            this.afterMax = afterMax;
+        }
+
+        @Override
+        public double modify(double speed) {
+            double value = stage.modify(Math.max(Math.min(speed * scale, max), min));
+            return Math.max(Math.min(value * afterScale, afterMax), afterMin);
+        }
+
+        @Override
+        public void modify(double[] in, double[] out) {
+            for (int i = 0; i < in.length; i++) out[i] = modify(in[i]);
+        }
+    }
+
+    /**
+     * Any number of opaque stages, each followed by a folded stage.
+     */
+    static final class Pipeline extends SpeedModifierPipeline {
+        final double scale;
+        final double min;
+        final double max;
+        final SpeedModifier[] stages;
+        final double[] stageScale;
+        final double[] stageMin;
+        final double[] stageMax;
+
+        Pipeline(double scale, double min, double max, SpeedModifier[] stages, double[] stageScale, double[] stageMin,
+                double[] stageMax) {
+            this.scale = scale;
+            this.min = min;
+            this.max = max;
+            this.stages = stages;
+            this.stageScale = stageScale;
+            this.stageMin = stageMin;
+            this.stageMax = stageMax;
+        }
+
+        @Override
+        public double modify(double speed) {
+            double value = Math.max(Math.min(speed * scale, max), min);
+            for (int i = 0; i < stages.length; i++) {
+                value = stages[i].modify(value);
+                value = Math.max(Math.min(value * stageScale[i], stageMax[i]), stageMin[i]);
+            }
+            return value;
+        }
+
+        @Override
+        public void modify(double[] in, double[] out) {
+            for (int i = 0; i < in.length; i++) out[i] = modify(in[i]);
+        }
+    }
+}